@@ -22,6 +22,9 @@ public final class R {
         public static final int alert_dialog=0x7f030000;
         public static final int main=0x7f030001;
     }
+    public static final class raw {
+        public static final int table=0x7f060000;
+    }
     public static final class string {
         public static final int app_name=0x7f040000;
     }
@@ -0,0 +1,26 @@
+#!/bin/sh
+#
+# Builds the app's sources together with the JUnit tests under test/ and
+# runs them on the desktop JVM. The platform android.jar is only on the
+# class path to satisfy the compiler and linker: the tests run the
+# simulation headless, without a context or bitmaps, and never call into
+# it. Drawing, sensors and touch are not covered.
+#
+#   ANDROID_HOME=~/android-sdk JUNIT=junit-4.12.jar:hamcrest-core-1.3.jar ./run-tests.sh
+#
+set -e
+cd "$(dirname "$0")"
+
+: "${ANDROID_HOME:?set ANDROID_HOME to the Android SDK}"
+: "${JUNIT:?set JUNIT to the class path of JUnit 4 and hamcrest-core}"
+TARGET=$(sed -n 's/^target=//p' default.properties)
+ANDROID_JAR="$ANDROID_HOME/platforms/$TARGET/android.jar"
+OUT=bin/tests
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+find src gen test -name '*.java' > "$OUT/sources.txt"
+javac -nowarn -encoding UTF-8 -d "$OUT" -cp "$JUNIT:$ANDROID_JAR" @"$OUT/sources.txt"
+# the tests read the table layout from res/, relative to the project directory
+TESTS=$(cd test && find . -name '*Test.java' | sed 's|^\./||; s|\.java$||; s|/|.|g')
+java -cp "$OUT:$JUNIT:$ANDROID_JAR" org.junit.runner.JUnitCore $TESTS
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.Log;
+
+/**
+ * The largest table this device can simulate and draw within a frame.
+ *
+ * On first launch a short benchmark times ParticleSystem.update and the
+ * drawing of the orbs for a few table sizes, solver iteration counts
+ * and render paths, and the most demanding combination which fits the
+ * frame budget is kept in the shared preferences.
+ */
+class DeviceCalibration {
+
+	static final int RENDER_SPRITES = 0;
+	static final int RENDER_CIRCLES = 1;
+
+	private static final String PREFERENCES = "calibration";
+	private static final String KEY_PARTICLE_COUNT = "particleCount";
+	private static final String KEY_MAX_ITERATIONS = "maxIterations";
+	private static final String KEY_RENDER_PATH = "renderPath";
+
+	// table sizes to try, smallest first
+	private static final int[] PARTICLE_COUNTS = { 15, 30, 60, 120, 240 };
+	// solver iterations to try for each size, most accurate first
+	private static final int[] ITERATION_COUNTS = { ParticleSystem.NUM_MAX_ITERATIONS, 6, 3 };
+	// leave half of a 60Hz frame to the rest of the system
+	private static final long FRAME_BUDGET_NANOS = 8000000L;
+	private static final long STEP_NANOS = 16666667L;
+	private static final int WARMUP_STEPS = 20;
+	private static final int MEASURED_STEPS = 40;
+	// the benchmark always runs the same table
+	private static final long SEED = 0x7E51A7AB1EL;
+
+	private final int mParticleCount;
+	private final int mMaxIterations;
+	private final int mRenderPath;
+
+	DeviceCalibration(int particleCount, int maxIterations, int renderPath) {
+		mParticleCount = particleCount;
+		mMaxIterations = maxIterations;
+		mRenderPath = renderPath;
+	}
+
+	public int getParticleCount() {
+		return mParticleCount;
+	}
+
+	public int getMaxIterations() {
+		return mMaxIterations;
+	}
+
+	public int getRenderPath() {
+		return mRenderPath;
+	}
+
+	/**
+	 * @return the saved calibration, or null if the device hasn't been
+	 *         calibrated yet
+	 */
+	static DeviceCalibration load(Context context) {
+		final SharedPreferences prefs =
+			context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+		if (!prefs.contains(KEY_PARTICLE_COUNT)) {
+			return null;
+		}
+		return new DeviceCalibration(
+				prefs.getInt(KEY_PARTICLE_COUNT, ParticleSystem.NUM_PARTICLES),
+				prefs.getInt(KEY_MAX_ITERATIONS, ParticleSystem.NUM_MAX_ITERATIONS),
+				prefs.getInt(KEY_RENDER_PATH, RENDER_SPRITES));
+	}
+
+	void save(Context context) {
+		context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+			.putInt(KEY_PARTICLE_COUNT, mParticleCount)
+			.putInt(KEY_MAX_ITERATIONS, mMaxIterations)
+			.putInt(KEY_RENDER_PATH, mRenderPath)
+			.commit();
+	}
+
+	/**
+	 * Forget the saved calibration, so that the next start runs it again.
+	 */
+	static void clear(Context context) {
+		context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+			.clear()
+			.commit();
+	}
+
+	/**
+	 * Run the benchmark. This takes a few seconds, so call it off the UI
+	 * thread.
+	 *
+	 * @param width width of the table in pixels
+	 * @param height height of the table in pixels
+	 */
+	static DeviceCalibration run(SimulationView simulationView, Bitmap ball,
+			ObstacleSet obstacles, PhysicsEngineConvertor convertor, int width, int height) {
+		final Bitmap target = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+		final Canvas canvas = new Canvas(target);
+		final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		// the sprites are only needed to time the drawing, so there is one set of them
+		ParticleSystem sprites = null;
+
+		// if not even the smallest table fits, make it as cheap as we can
+		DeviceCalibration best = new DeviceCalibration(PARTICLE_COUNTS[0],
+				ITERATION_COUNTS[ITERATION_COUNTS.length - 1], RENDER_CIRCLES);
+		for (int c = 0; c < PARTICLE_COUNTS.length; c++) {
+			final int count = PARTICLE_COUNTS[c];
+			DeviceCalibration fitted = null;
+			long spriteDrawing = -1;
+			long circleDrawing = -1;
+			for (int i = 0; i < ITERATION_COUNTS.length && fitted == null; i++) {
+				final int iterations = ITERATION_COUNTS[i];
+				final ParticleSystem system = new ParticleSystem(null, obstacles.withoutHoles(),
+						convertor, TableParameters.DEFAULT, count, iterations, SEED);
+				system.onSizeChanged(width, height);
+				final long physics = timeUpdates(system);
+				if (physics > FRAME_BUDGET_NANOS) {
+					continue;
+				}
+				if (spriteDrawing == -1) {
+					if (sprites == null) {
+						sprites = new ParticleSystem(ball, obstacles.withoutHoles(), convertor,
+								TableParameters.DEFAULT, PARTICLE_COUNTS[PARTICLE_COUNTS.length - 1],
+								ITERATION_COUNTS[0], SEED);
+						sprites.onSizeChanged(width, height);
+					}
+					scatter(sprites, count);
+					spriteDrawing = timeDrawing(simulationView, sprites, canvas, paint,
+							RENDER_SPRITES, width, height);
+					circleDrawing = timeDrawing(simulationView, sprites, canvas, paint,
+							RENDER_CIRCLES, width, height);
+				}
+				if (physics + spriteDrawing <= FRAME_BUDGET_NANOS) {
+					fitted = new DeviceCalibration(count, iterations, RENDER_SPRITES);
+				} else if (physics + circleDrawing <= FRAME_BUDGET_NANOS) {
+					fitted = new DeviceCalibration(count, iterations, RENDER_CIRCLES);
+				}
+			}
+			if (fitted == null) {
+				// a bigger table won't fit either
+				break;
+			}
+			best = fitted;
+		}
+		if (sprites != null) {
+			final Particle[] particles = sprites.getParticles();
+			for (int i = 0; i < particles.length; i++) {
+				// createScaledBitmap hands back the ball itself if the size already matches
+				if (particles[i].mBitmap != ball) {
+					particles[i].mBitmap.recycle();
+				}
+			}
+		}
+		target.recycle();
+		Log.i("TeslaTable", "Calibrated for " + best.mParticleCount + " orbs, "
+				+ best.mMaxIterations + " iterations, render path " + best.mRenderPath);
+		return best;
+	}
+
+	/*
+	 * Put exactly count orbs of the sprite set on the table, spread over
+	 * all of it.
+	 */
+	private static void scatter(ParticleSystem sprites, int count) {
+		while (sprites.getParticleCount() > count) {
+			sprites.despawn(sprites.getParticleCount() - 1);
+		}
+		while (sprites.getParticleCount() < count) {
+			sprites.spawn(0, 0);
+		}
+		final FastRandom random = new FastRandom(SEED);
+		final Particle[] particles = sprites.getParticles();
+		for (int i = 0; i < count; i++) {
+			particles[i].reset((random.nextFloat() - 0.5f) * 2 * sprites.mHorizontalBound,
+					(random.nextFloat() - 0.5f) * 2 * sprites.mVerticalBound);
+		}
+	}
+
+	/*
+	 * Tip the table up so the orbs pile up against the bottom wall and
+	 * time the average step. The table has no holes, so every orb is
+	 * still there when the timing ends.
+	 */
+	private static long timeUpdates(ParticleSystem system) {
+		long now = STEP_NANOS;
+		for (int i = 0; i < WARMUP_STEPS; i++) {
+			system.update(0, 9.81f, 0, 0, now);
+			now += STEP_NANOS;
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_STEPS; i++) {
+			system.update(0, 9.81f, 0, 0, now);
+			now += STEP_NANOS;
+		}
+		return (System.nanoTime() - start) / MEASURED_STEPS;
+	}
+
+	private static long timeDrawing(SimulationView simulationView, ParticleSystem system,
+			Canvas canvas, Paint paint, int renderPath, int width, int height) {
+		for (int i = 0; i < WARMUP_STEPS; i++) {
+			simulationView.drawParticles(canvas, system, renderPath, paint, width, height);
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_STEPS; i++) {
+			simulationView.drawParticles(canvas, system, renderPath, paint, width, height);
+		}
+		return (System.nanoTime() - start) / MEASURED_STEPS;
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent tables headless and in parallel, one per core,
+ * and writes a line of statistics per run to a CSV file. Used to tune
+ * the friction, mass and charge distributions of the orbs.
+ *
+ * Each run turns the tilted table through a full circle over [steps]
+ * steps, which the iteration and speed columns describe, then holds it
+ * still and counts the steps until the orbs come to rest.
+ *
+ * It runs on a desktop JVM, with the platform android.jar on the class
+ * path only to satisfy the linker:
+ *
+ *   java com.avftech.TeslaTable.EnsembleRunner out.csv [seeds] [steps]
+ *        [layout] [trace.json]
+ */
+class EnsembleRunner {
+
+	// the table of a typical phone, in meters from its centre
+	private static final float HORIZONTAL_BOUND = 0.025f;
+	private static final float VERTICAL_BOUND = 0.04f;
+	private static final float DPI = 160.0f;
+	private static final long STEP_NANOS = 16666667L;
+	// the table is tipped by this much and slowly turned through a full circle
+	private static final float TILT = 3.0f;
+	// the device's own field, in uT
+	private static final float FIELD_X = 30.0f;
+	private static final float FIELD_Y = 0.0f;
+	/*
+	 * After the turns the table is held still for at most this many steps.
+	 * It counts as settled once nothing has moved by more than a tenth of a
+	 * pixel for a while, the same test the view uses before it stops
+	 * drawing.
+	 */
+	private static final int MAX_SETTLE_STEPS = 1200;
+	private static final int QUIET_STEPS = 30;
+	private static final float SETTLED_PIXELS = 0.1f;
+
+	private final ObstacleSet mObstacles;
+	private final PhysicsEngineConvertor mConvertor = new PhysicsEngineConvertor(DPI, DPI);
+	private final int mParticleCount;
+	private final int mMaxIterations;
+	private final int mSteps;
+
+	EnsembleRunner(ObstacleSet obstacles, int particleCount, int maxIterations, int steps) {
+		mObstacles = obstacles;
+		mParticleCount = particleCount;
+		mMaxIterations = maxIterations;
+		mSteps = steps;
+	}
+
+	/**
+	 * Statistics of one table.
+	 */
+	static class Result {
+		final TableParameters mParameters;
+		final long mSeed;
+		int mRemaining;
+		float mMeanIterations;
+		int mMaxIterations;
+		float mFinalMeanSpeed;
+		int mSettledStep;
+		long mElapsedNanos;
+
+		Result(TableParameters parameters, long seed) {
+			mParameters = parameters;
+			mSeed = seed;
+		}
+	}
+
+	/**
+	 * Run seedsPerParameter tables for each of the given parameters on
+	 * threads threads.
+	 *
+	 * @return the results, in the order of parameters then seeds
+	 */
+	List<Result> run(List<TableParameters> parameters, int seedsPerParameter, int threads)
+			throws InterruptedException, ExecutionException {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			long seed = 1;
+			for (final TableParameters p : parameters) {
+				for (int s = 0; s < seedsPerParameter; s++) {
+					final long runSeed = seed++;
+					futures.add(executor.submit(new Callable<Result>() {
+						@Override
+						public Result call() {
+							return runTable(p, runSeed);
+						}
+					}));
+				}
+			}
+			final List<Result> results = new ArrayList<Result>(futures.size());
+			for (Future<Result> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * Everything a table touches is created here, so runs on different
+	 * threads share nothing.
+	 */
+	private Result runTable(TableParameters parameters, long seed) {
+		final Result result = new Result(parameters, seed);
+		final long start = System.nanoTime();
+		final ParticleSystem system = new ParticleSystem(null, mObstacles.copy(), mConvertor,
+				parameters, mParticleCount, mMaxIterations, seed);
+		system.updateBounds(HORIZONTAL_BOUND, VERTICAL_BOUND);
+		// scatter the orbs over the table rather than stacking them in the middle
+		final FastRandom placement = new FastRandom(~seed);
+		final Particle[] particles = system.getParticles();
+		for (int i = 0; i < mParticleCount; i++) {
+			particles[i].reset((placement.nextFloat() - 0.5f) * 2 * HORIZONTAL_BOUND,
+					(placement.nextFloat() - 0.5f) * 2 * VERTICAL_BOUND);
+		}
+
+		long now = STEP_NANOS;
+		long iterations = 0;
+		for (int step = 0; step < mSteps; step++) {
+			final double angle = 2 * Math.PI * step / mSteps;
+			system.update((float) (TILT * Math.sin(angle)), (float) (TILT * Math.cos(angle)),
+					FIELD_X, FIELD_Y, now);
+			now += STEP_NANOS;
+			iterations += system.getLastIterationCount();
+			result.mMaxIterations = Math.max(result.mMaxIterations, system.getLastIterationCount());
+		}
+
+		final int remaining = system.getParticleCount();
+		float distance = 0;
+		for (int i = 0; i < remaining; i++) {
+			distance += (float) Math.sqrt(particles[i].getStepDisplacement2());
+		}
+		result.mRemaining = remaining;
+		result.mMeanIterations = (float) iterations / mSteps;
+		result.mFinalMeanSpeed = remaining == 0 ? 0
+				: distance / remaining / (STEP_NANOS * (1.0f / 1000000000.0f));
+		result.mSettledStep = settle(system, now);
+		result.mElapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/*
+	 * Hold the table at the tilt the turns ended on.
+	 *
+	 * @return the number of steps until the orbs came to rest, or -1 if
+	 *         they were still moving after MAX_SETTLE_STEPS
+	 */
+	private int settle(ParticleSystem system, long now) {
+		final float settled = mConvertor.convertToInertialFrameX(SETTLED_PIXELS);
+		int quiet = 0;
+		for (int step = 0; step < MAX_SETTLE_STEPS; step++) {
+			system.update(0, TILT, FIELD_X, FIELD_Y, now);
+			now += STEP_NANOS;
+			if (system.getMaxStepDisplacement2() < settled * settled) {
+				if (++quiet == QUIET_STEPS) {
+					return step + 1 - QUIET_STEPS;
+				}
+			} else {
+				quiet = 0;
+			}
+		}
+		return -1;
+	}
+
+	static void writeCsv(File file, List<Result> results) throws IOException {
+		final Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write("seed,friction,friction_spread,min_mass,max_mass,charge_spread,"
+					+ "charged_fraction,remaining,mean_iterations,max_iterations,"
+					+ "final_mean_speed,settled_step,elapsed_ms\n");
+			for (Result r : results) {
+				final TableParameters p = r.mParameters;
+				out.write(r.mSeed + "," + p.mFriction + "," + p.mFrictionSpread + ","
+						+ p.mMinMass + "," + p.mMaxMass + "," + p.mChargeSpread + ","
+						+ p.mChargedFraction + "," + r.mRemaining + "," + r.mMeanIterations + ","
+						+ r.mMaxIterations + "," + r.mFinalMeanSpeed + "," + r.mSettledStep + ","
+						+ (r.mElapsedNanos / 1000000) + "\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The default sweep: friction, charge spread and the share of charged
+	 * orbs around the values the app ships with.
+	 */
+	static List<TableParameters> sweep() {
+		final float[] frictions = { 0.05f, 0.1f, 0.2f };
+		final float[] chargeSpreads = { 0.1f, 0.2f, 0.4f };
+		final float[] chargedFractions = { 0.25f, 0.5f, 0.75f };
+		final TableParameters d = TableParameters.DEFAULT;
+		final List<TableParameters> parameters = new ArrayList<TableParameters>();
+		for (float friction : frictions) {
+			for (float chargeSpread : chargeSpreads) {
+				for (float chargedFraction : chargedFractions) {
+					parameters.add(new TableParameters(friction, d.mFrictionSpread,
+							d.mMinMass, d.mMaxMass, chargeSpread, chargedFraction));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("usage: EnsembleRunner out.csv [seeds] [steps] [layout] [trace.json]");
+			System.exit(1);
+		}
+		final File output = new File(args[0]);
+		final int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		final int steps = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+		final ObstacleSet obstacles = args.length > 3
+				? ObstacleSet.load(new FileInputStream(args[3]))
+				: new ObstacleSet(new float[0], new float[0], new float[0], new float[0],
+						new float[0], new float[0], new float[0], new float[0]);
+		TraceEventWriter trace = null;
+		if (args.length > 4) {
+			trace = new TraceEventWriter(new File(args[4]));
+			SimulationTrace.setEventWriter(trace);
+		}
+
+		final List<TableParameters> parameters = sweep();
+		final int threads = Runtime.getRuntime().availableProcessors();
+		final EnsembleRunner runner = new EnsembleRunner(obstacles, ParticleSystem.NUM_PARTICLES,
+				ParticleSystem.NUM_MAX_ITERATIONS, steps);
+		final long start = System.nanoTime();
+		final List<Result> results = runner.run(parameters, seeds, threads);
+		writeCsv(output, results);
+		if (trace != null) {
+			SimulationTrace.setEventWriter(null);
+			trace.close();
+		}
+		System.out.println(results.size() + " tables on " + threads + " threads in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
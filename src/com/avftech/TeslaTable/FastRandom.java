@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+/**
+ * A small, seedable xorshift64* generator for the physics.
+ *
+ * Unlike Math.random() it isn't shared and doesn't synchronize, so each
+ * thread that solves a system owns its own stream and never contends
+ * with another, and the same seed always replays the same sequence.
+ * Not thread safe; use {@link #split()} to hand a stream to another
+ * thread.
+ */
+class FastRandom {
+
+	private long mState;
+
+	FastRandom(long seed) {
+		// xorshift must never be in the all-zero state
+		mState = mix(seed);
+		if (mState == 0) {
+			mState = 0x9E3779B97F4A7C15L;
+		}
+	}
+
+	/*
+	 * SplitMix64 finalizer, spreads similar seeds over the whole state.
+	 */
+	private static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public long nextLong() {
+		long x = mState;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		mState = x;
+		return x * 0x2545F4914F6CDD1DL;
+	}
+
+	/**
+	 * @return a float uniformly distributed in [0, 1)
+	 */
+	public float nextFloat() {
+		return (nextLong() >>> 40) * (1.0f / (1 << 24));
+	}
+
+	/**
+	 * @return a new generator seeded from this one, whose sequence is
+	 *         independent of the rest of this one's
+	 */
+	public FastRandom split() {
+		return new FastRandom(nextLong());
+	}
+}
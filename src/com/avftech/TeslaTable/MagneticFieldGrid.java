@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+/**
+ * The magnetic field of the virtual magnets placed on the table.
+ *
+ * The field is sampled on a regular grid covering the table, which is
+ * only recomputed when a magnet is added, moved or removed. Particles
+ * read it back with bilinear interpolation, so the cost per particle
+ * doesn't depend on the number of magnets. The device's own field is
+ * uniform and is added on top by the caller.
+ */
+class MagneticFieldGrid {
+
+	static final int MAX_MAGNETS = 8;
+	// cells across and down the table
+	private static final int COLUMNS = 24;
+	private static final int ROWS = 40;
+	// field of a magnet is about 100uT at 1cm
+	private static final float MAGNET_STRENGTH = 100.0f * 0.01f * 0.01f;
+	// keeps the field finite right on top of a magnet, in meters
+	private static final float SOFTENING = 0.003f;
+
+	private final float[] mMagnetX = new float[MAX_MAGNETS];
+	private final float[] mMagnetY = new float[MAX_MAGNETS];
+	private int mMagnetCount;
+
+	// field at the grid nodes, row major
+	private final float[] mFieldX = new float[(COLUMNS + 1) * (ROWS + 1)];
+	private final float[] mFieldY = new float[(COLUMNS + 1) * (ROWS + 1)];
+	private float mMinX;
+	private float mMinY;
+	private float mCellWidth = 1;
+	private float mCellHeight = 1;
+	private boolean mDirty;
+
+	// result of the last call to sample()
+	private float mSampleX;
+	private float mSampleY;
+
+	/**
+	 * Cover the table, which extends from -horizontalBound to
+	 * horizontalBound and likewise vertically.
+	 */
+	public void setBounds(float horizontalBound, float verticalBound) {
+		mMinX = -horizontalBound;
+		mMinY = -verticalBound;
+		mCellWidth = 2 * horizontalBound / COLUMNS;
+		mCellHeight = 2 * verticalBound / ROWS;
+		mDirty = true;
+	}
+
+	/**
+	 * @return false if there is no room for another magnet
+	 */
+	public boolean addMagnet(float x, float y) {
+		if (mMagnetCount == MAX_MAGNETS) {
+			return false;
+		}
+		mMagnetX[mMagnetCount] = x;
+		mMagnetY[mMagnetCount] = y;
+		mMagnetCount++;
+		mDirty = true;
+		return true;
+	}
+
+	public void moveMagnet(int i, float x, float y) {
+		mMagnetX[i] = x;
+		mMagnetY[i] = y;
+		mDirty = true;
+	}
+
+	public void removeMagnet(int i) {
+		mMagnetCount--;
+		mMagnetX[i] = mMagnetX[mMagnetCount];
+		mMagnetY[i] = mMagnetY[mMagnetCount];
+		mDirty = true;
+	}
+
+	/**
+	 * @return the index of a magnet within radius of (x, y), or -1
+	 */
+	public int findMagnet(float x, float y, float radius) {
+		for (int i = 0; i < mMagnetCount; i++) {
+			final float dx = x - mMagnetX[i];
+			final float dy = y - mMagnetY[i];
+			if (dx * dx + dy * dy < radius * radius) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int getMagnetCount() {
+		return mMagnetCount;
+	}
+
+	public float getMagnetX(int i) {
+		return mMagnetX[i];
+	}
+
+	public float getMagnetY(int i) {
+		return mMagnetY[i];
+	}
+
+	/**
+	 * Recompute the grid if the magnets or the table changed since the
+	 * last call.
+	 */
+	public void update() {
+		if (!mDirty) {
+			return;
+		}
+		mDirty = false;
+		final float soft2 = SOFTENING * SOFTENING;
+		int n = 0;
+		for (int row = 0; row <= ROWS; row++) {
+			final float y = mMinY + row * mCellHeight;
+			for (int col = 0; col <= COLUMNS; col++) {
+				final float x = mMinX + col * mCellWidth;
+				float fx = 0, fy = 0;
+				for (int m = 0; m < mMagnetCount; m++) {
+					/*
+					 * Each magnet is a pole, its field points away from it
+					 * and falls off with the square of the distance.
+					 */
+					final float dx = x - mMagnetX[m];
+					final float dy = y - mMagnetY[m];
+					final float dd = dx * dx + dy * dy + soft2;
+					final float s = MAGNET_STRENGTH / (dd * (float) Math.sqrt(dd));
+					fx += dx * s;
+					fy += dy * s;
+				}
+				mFieldX[n] = fx;
+				mFieldY[n] = fy;
+				n++;
+			}
+		}
+	}
+
+	/**
+	 * Interpolate the field at (x, y); read the result back with
+	 * {@link #getSampleX()} and {@link #getSampleY()}.
+	 */
+	public void sample(float x, float y) {
+		if (mMagnetCount == 0) {
+			mSampleX = 0;
+			mSampleY = 0;
+			return;
+		}
+		float u = (x - mMinX) / mCellWidth;
+		float v = (y - mMinY) / mCellHeight;
+		u = Math.max(0, Math.min(COLUMNS, u));
+		v = Math.max(0, Math.min(ROWS, v));
+		final int col = Math.min(COLUMNS - 1, (int) u);
+		final int row = Math.min(ROWS - 1, (int) v);
+		final float fu = u - col;
+		final float fv = v - row;
+		final int n00 = row * (COLUMNS + 1) + col;
+		final int n10 = n00 + 1;
+		final int n01 = n00 + COLUMNS + 1;
+		final int n11 = n01 + 1;
+		final float w00 = (1 - fu) * (1 - fv);
+		final float w10 = fu * (1 - fv);
+		final float w01 = (1 - fu) * fv;
+		final float w11 = fu * fv;
+		mSampleX = w00 * mFieldX[n00] + w10 * mFieldX[n10] + w01 * mFieldX[n01] + w11 * mFieldX[n11];
+		mSampleY = w00 * mFieldY[n00] + w10 * mFieldY[n10] + w01 * mFieldY[n01] + w11 * mFieldY[n11];
+	}
+
+	public float getSampleX() {
+		return mSampleX;
+	}
+
+	public float getSampleY() {
+		return mSampleY;
+	}
+}
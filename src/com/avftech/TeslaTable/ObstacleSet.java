@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+import android.content.res.Resources;
+import android.util.Log;
+
+/**
+ * The static obstacles on the table: pegs, walls and line segments, plus
+ * the holes which swallow any orb that rolls into them.
+ *
+ * Every obstacle is stored as a capsule, a segment from a to b swept by
+ * a radius; a peg is simply a capsule whose ends coincide. The obstacles
+ * are indexed by a bounding volume hierarchy which is built once, so a
+ * particle only has to be tested against the few obstacles near it.
+ */
+class ObstacleSet {
+
+	// obstacles per leaf of the hierarchy
+	private static final int LEAF_SIZE = 2;
+
+	private final int mCount;
+	private final float[] mAx;
+	private final float[] mAy;
+	private final float[] mBx;
+	private final float[] mBy;
+	private final float[] mRadius;
+
+	// holes don't collide, there are only ever a handful of them
+	private final int mHoleCount;
+	private final float[] mHoleX;
+	private final float[] mHoleY;
+	private final float[] mHoleRadius;
+
+	/*
+	 * The hierarchy is flattened into arrays. An inner node has two
+	 * children, a leaf (mNodeLeft == -1) covers mNodeCount entries of
+	 * mOrder starting at mNodeStart.
+	 */
+	private final float[] mNodeMinX;
+	private final float[] mNodeMinY;
+	private final float[] mNodeMaxX;
+	private final float[] mNodeMaxY;
+	private final int[] mNodeLeft;
+	private final int[] mNodeRight;
+	private final int[] mNodeStart;
+	private final int[] mNodeCount;
+	private final int[] mOrder;
+	private int mNodes;
+	// traversal stack, preallocated so queries don't allocate
+	private final int[] mStack;
+
+	ObstacleSet(float[] ax, float[] ay, float[] bx, float[] by, float[] radius,
+			float[] holeX, float[] holeY, float[] holeRadius) {
+		mCount = ax.length;
+		mAx = ax;
+		mAy = ay;
+		mBx = bx;
+		mBy = by;
+		mRadius = radius;
+		mHoleCount = holeX.length;
+		mHoleX = holeX;
+		mHoleY = holeY;
+		mHoleRadius = holeRadius;
+
+		final int maxNodes = Math.max(1, 2 * mCount);
+		mNodeMinX = new float[maxNodes];
+		mNodeMinY = new float[maxNodes];
+		mNodeMaxX = new float[maxNodes];
+		mNodeMaxY = new float[maxNodes];
+		mNodeLeft = new int[maxNodes];
+		mNodeRight = new int[maxNodes];
+		mNodeStart = new int[maxNodes];
+		mNodeCount = new int[maxNodes];
+		mStack = new int[maxNodes];
+		mOrder = new int[mCount];
+		for (int i = 0; i < mCount; i++) {
+			mOrder[i] = i;
+		}
+		if (mCount > 0) {
+			build(0, mCount);
+		}
+	}
+
+	/**
+	 * Reads a table layout from a raw resource. Each line is one of
+	 * "peg x y radius", "segment x1 y1 x2 y2 radius" or "hole x y radius",
+	 * in meters; blank lines and lines starting with '#' are ignored.
+	 */
+	static ObstacleSet load(Resources resources, int id) {
+		return load(resources.openRawResource(id));
+	}
+
+	/**
+	 * Reads a table layout in the same format from a stream, which is
+	 * closed afterwards.
+	 */
+	static ObstacleSet load(InputStream in) {
+		final ArrayList<float[]> capsules = new ArrayList<float[]>();
+		final ArrayList<float[]> holes = new ArrayList<float[]>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				final String[] tokens = line.split("\\s+");
+				if (tokens[0].equals("peg") && tokens.length == 4) {
+					final float x = Float.parseFloat(tokens[1]);
+					final float y = Float.parseFloat(tokens[2]);
+					capsules.add(new float[] { x, y, x, y, Float.parseFloat(tokens[3]) });
+				} else if (tokens[0].equals("segment") && tokens.length == 6) {
+					capsules.add(new float[] { Float.parseFloat(tokens[1]),
+							Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3]),
+							Float.parseFloat(tokens[4]), Float.parseFloat(tokens[5]) });
+				} else if (tokens[0].equals("hole") && tokens.length == 4) {
+					holes.add(new float[] { Float.parseFloat(tokens[1]),
+							Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3]) });
+				} else {
+					throw new IllegalArgumentException("Malformed obstacle on line "
+							+ lineNumber + ": " + line);
+				}
+			}
+		} catch (IOException e) {
+			Log.e("TeslaTable", "Couldn't read table layout due to IOException" + e);
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				Log.e("TeslaTable", "Couldn't close table layout due to IOException" + e);
+			}
+		}
+
+		final int count = capsules.size();
+		final float[] ax = new float[count];
+		final float[] ay = new float[count];
+		final float[] bx = new float[count];
+		final float[] by = new float[count];
+		final float[] radius = new float[count];
+		for (int i = 0; i < count; i++) {
+			final float[] c = capsules.get(i);
+			ax[i] = c[0];
+			ay[i] = c[1];
+			bx[i] = c[2];
+			by[i] = c[3];
+			radius[i] = c[4];
+		}
+		final int holeCount = holes.size();
+		final float[] holeX = new float[holeCount];
+		final float[] holeY = new float[holeCount];
+		final float[] holeRadius = new float[holeCount];
+		for (int i = 0; i < holeCount; i++) {
+			final float[] h = holes.get(i);
+			holeX[i] = h[0];
+			holeY[i] = h[1];
+			holeRadius[i] = h[2];
+		}
+		return new ObstacleSet(ax, ay, bx, by, radius, holeX, holeY, holeRadius);
+	}
+
+	/**
+	 * @return an obstacle set with the same layout. Queries use scratch
+	 *         space in the set, so systems stepped on different threads
+	 *         each need their own copy.
+	 */
+	ObstacleSet copy() {
+		return new ObstacleSet(mAx, mAy, mBx, mBy, mRadius, mHoleX, mHoleY, mHoleRadius);
+	}
+
+	/**
+	 * @return a copy of this set with the pegs and walls but no holes
+	 */
+	ObstacleSet withoutHoles() {
+		return new ObstacleSet(mAx, mAy, mBx, mBy, mRadius, new float[0], new float[0],
+				new float[0]);
+	}
+
+	/*
+	 * Builds the subtree over mOrder[start, end) and returns its node
+	 * index. The range is split at the median along the longer axis of
+	 * the obstacle centres.
+	 */
+	private int build(int start, int end) {
+		final int node = mNodes++;
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		float cMinX = Float.MAX_VALUE, cMinY = Float.MAX_VALUE;
+		float cMaxX = -Float.MAX_VALUE, cMaxY = -Float.MAX_VALUE;
+		for (int i = start; i < end; i++) {
+			final int o = mOrder[i];
+			final float r = mRadius[o];
+			minX = Math.min(minX, Math.min(mAx[o], mBx[o]) - r);
+			minY = Math.min(minY, Math.min(mAy[o], mBy[o]) - r);
+			maxX = Math.max(maxX, Math.max(mAx[o], mBx[o]) + r);
+			maxY = Math.max(maxY, Math.max(mAy[o], mBy[o]) + r);
+			final float cx = centreX(o);
+			final float cy = centreY(o);
+			cMinX = Math.min(cMinX, cx);
+			cMinY = Math.min(cMinY, cy);
+			cMaxX = Math.max(cMaxX, cx);
+			cMaxY = Math.max(cMaxY, cy);
+		}
+		mNodeMinX[node] = minX;
+		mNodeMinY[node] = minY;
+		mNodeMaxX[node] = maxX;
+		mNodeMaxY[node] = maxY;
+
+		if (end - start <= LEAF_SIZE) {
+			mNodeLeft[node] = -1;
+			mNodeRight[node] = -1;
+			mNodeStart[node] = start;
+			mNodeCount[node] = end - start;
+			return node;
+		}
+
+		// only done once at load, a simple insertion sort will do
+		final boolean alongX = (cMaxX - cMinX) >= (cMaxY - cMinY);
+		for (int i = start + 1; i < end; i++) {
+			final int o = mOrder[i];
+			final float key = alongX ? centreX(o) : centreY(o);
+			int j = i - 1;
+			while (j >= start && (alongX ? centreX(mOrder[j]) : centreY(mOrder[j])) > key) {
+				mOrder[j + 1] = mOrder[j];
+				j--;
+			}
+			mOrder[j + 1] = o;
+		}
+		final int mid = (start + end) >>> 1;
+		mNodeLeft[node] = build(start, mid);
+		mNodeRight[node] = build(mid, end);
+		return node;
+	}
+
+	private float centreX(int o) {
+		return (mAx[o] + mBx[o]) * 0.5f;
+	}
+
+	private float centreY(int o) {
+		return (mAy[o] + mBy[o]) * 0.5f;
+	}
+
+	/**
+	 * Moves the particle out of any obstacle it overlaps.
+	 */
+	public void resolveCollision(Particle particle) {
+		if (mCount == 0) {
+			return;
+		}
+		final float pr = particle.getRadius();
+		int top = 0;
+		mStack[top++] = 0;
+		while (top > 0) {
+			final int node = mStack[--top];
+			final float x = particle.mPosX;
+			final float y = particle.mPosY;
+			if (x + pr < mNodeMinX[node] || x - pr > mNodeMaxX[node]
+					|| y + pr < mNodeMinY[node] || y - pr > mNodeMaxY[node]) {
+				continue;
+			}
+			if (mNodeLeft[node] != -1) {
+				mStack[top++] = mNodeLeft[node];
+				mStack[top++] = mNodeRight[node];
+				continue;
+			}
+			final int end = mNodeStart[node] + mNodeCount[node];
+			for (int i = mNodeStart[node]; i < end; i++) {
+				resolveCollision(particle, mOrder[i]);
+			}
+		}
+	}
+
+	/*
+	 * Find the closest point of the capsule's segment to the particle and
+	 * push the particle out along the line joining them.
+	 */
+	private void resolveCollision(Particle particle, int o) {
+		final float ax = mAx[o];
+		final float ay = mAy[o];
+		final float abx = mBx[o] - ax;
+		final float aby = mBy[o] - ay;
+		final float px = particle.mPosX;
+		final float py = particle.mPosY;
+		final float ll = abx * abx + aby * aby;
+		float t = 0;
+		if (ll > 0) {
+			t = ((px - ax) * abx + (py - ay) * aby) / ll;
+			t = Math.max(0, Math.min(1, t));
+		}
+		final float dx = px - (ax + t * abx);
+		final float dy = py - (ay + t * aby);
+		final float dd = dx * dx + dy * dy;
+		final float minDistance = mRadius[o] + particle.getRadius();
+		if (dd >= minDistance * minDistance) {
+			return;
+		}
+		if (dd == 0) {
+			// dead centre, any direction will do
+			particle.mPosY = py + minDistance;
+			return;
+		}
+		final float d = (float) Math.sqrt(dd);
+		final float c = (minDistance - d) / d;
+		particle.mPosX = px + dx * c;
+		particle.mPosY = py + dy * c;
+	}
+
+	/**
+	 * @return true if a particle centred at (x, y) has dropped into a hole
+	 */
+	public boolean isInHole(float x, float y) {
+		for (int i = 0; i < mHoleCount; i++) {
+			final float dx = x - mHoleX[i];
+			final float dy = y - mHoleY[i];
+			final float r = mHoleRadius[i];
+			if (dx * dx + dy * dy < r * r) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getHoleCount() {
+		return mHoleCount;
+	}
+
+	public float getHoleX(int i) {
+		return mHoleX[i];
+	}
+
+	public float getHoleY(int i) {
+		return mHoleY[i];
+	}
+
+	public float getHoleRadius(int i) {
+		return mHoleRadius[i];
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public float getAx(int i) {
+		return mAx[i];
+	}
+
+	public float getAy(int i) {
+		return mAy[i];
+	}
+
+	public float getBx(int i) {
+		return mBx[i];
+	}
+
+	public float getBy(int i) {
+		return mBy[i];
+	}
+
+	public float getRadius(int i) {
+		return mRadius[i];
+	}
+}
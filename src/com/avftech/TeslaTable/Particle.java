@@ -23,14 +23,21 @@ import android.view.MotionEvent;
 
 class Particle {
     private final ParticleSystem mParticleSystem;
+    private final PhysicsEngineConvertor mConvertor;
 	float mPosX;
     float mPosY;
     private float mAccelX;
     private float mAccelY;
     private float mLastPosX;
     private float mLastPosY;
+    // position at the start of the current simulation step
+    private float mStepStartX;
+    private float mStepStartY;
     private float mOneMinusFriction;
+    // null when the system runs headless
     Bitmap mBitmap;
+    // the colour at the middle of the sprite, for drawing without bitmaps
+    int mColor;
     
     // diameter of the balls in meters
     static final float sBallDiameter = 0.004f;
@@ -38,10 +45,9 @@ class Particle {
     // friction of the virtual table and air
     static final float sFriction = 0.1f;
     
-    static PhysicsEngineConvertor sConvertor = null;
-    
 	private float mMass;
-	private int mTouchedBy;
+	// the pointer holding the particle, -1 when it moves freely
+	private int mTouchedBy = -1;
 	private float mScaleFactor;
 	private float mRadius;
 	private boolean mCharged;
@@ -51,28 +57,36 @@ class Particle {
 		return mRadius;
 	}
 	
-    public Particle(ParticleSystem particleSystem, Bitmap ball, PhysicsEngineConvertor convertor) {
+    /**
+     * @param ball the sprite to scale and colorize for this particle, or
+     *             null to run without graphics
+     */
+    public Particle(ParticleSystem particleSystem, Bitmap ball, PhysicsEngineConvertor convertor,
+    		        TableParameters parameters, FastRandom random) {
         mParticleSystem = particleSystem;
-        if(sConvertor == null) sConvertor = convertor;
-        initializeConstants(ball);
+        mConvertor = convertor;
+        initializeConstants(ball, parameters, random);
     }
 
-    private void initializeConstants(Bitmap ball) {
+    private void initializeConstants(Bitmap ball, TableParameters parameters, FastRandom random) {
 		// make each particle a bit different by randomizing its
         // coefficient of friction and it's mass
-        final float r1 = ((float) Math.random() - 0.5f) * 0.2f;
-        final float r2 = (float) (Math.random() + 0.5f);
-        final float r3 = ((float) Math.random() - 0.5f) * 0.2f;
-        mCharged = (Math.random() > 0.5) ? true : false;
-        mOneMinusFriction = 1.0f - sFriction + r1;
-        mMass = 500.0f + 500 * r2;
+        final float r1 = (random.nextFloat() - 0.5f) * parameters.mFrictionSpread;
+        final float r2 = random.nextFloat();
+        final float r3 = (random.nextFloat() - 0.5f) * parameters.mChargeSpread;
+        mCharged = (random.nextFloat() > 1.0f - parameters.mChargedFraction) ? true : false;
+        mOneMinusFriction = 1.0f - parameters.mFriction + r1;
+        mMass = parameters.mMinMass + (parameters.mMaxMass - parameters.mMinMass) * r2;
         mCharge = r3;
         mScaleFactor = mMass/1000.0f;
         mRadius = (Particle.sBallDiameter * mScaleFactor)/2;
+        if (ball == null) {
+        	return;
+        }
         final int dstWidth = (int) Math.ceil(
-        				sConvertor.convertToScreenX(Particle.sBallDiameter * mScaleFactor) );
+        				mConvertor.convertToScreenX(Particle.sBallDiameter * mScaleFactor) );
         final int dstHeight =(int) Math.ceil(
-        		 sConvertor.convertToScreenY(Particle.sBallDiameter * mScaleFactor) );
+        		 mConvertor.convertToScreenY(Particle.sBallDiameter * mScaleFactor) );
         mBitmap = Bitmap.createScaledBitmap(ball, dstWidth, dstHeight, true);
         
 		colorize_bitmap_based_on_details(r1, r3,mCharged);		
@@ -121,6 +135,7 @@ class Particle {
         		
         	}
         }		
+    	mColor = mBitmap.getPixel(mBitmap.getWidth() / 2, mBitmap.getHeight() / 2);
 	}
 
 	public void computePhysics(float sx, float sy, float mx, float my, float dT, float dTC) {
@@ -190,12 +205,44 @@ class Particle {
         }
     }
 
+    /**
+     * Put a particle taken from the pool at rest at (x, y).
+     */
+    void reset(float x, float y) {
+        mPosX = x;
+        mPosY = y;
+        mLastPosX = x;
+        mLastPosY = y;
+        mAccelX = 0;
+        mAccelY = 0;
+        mTouchedBy = -1;
+    }
+
+    /**
+     * Remember where the particle was before the step, so that
+     * {@link #getStepDisplacement2()} can tell how far it travelled.
+     */
+    void beginStep() {
+        mStepStartX = mPosX;
+        mStepStartY = mPosY;
+    }
+
+    /**
+     * @return the squared distance, in meters, the particle moved
+     *         since the last call to {@link #beginStep()}
+     */
+    float getStepDisplacement2() {
+        final float dx = mPosX - mStepStartX;
+        final float dy = mPosY - mStepStartY;
+        return dx * dx + dy * dy;
+    }
+
 	public boolean intersects(float screen_x, float screen_y) {
         final Bitmap bitmap = mBitmap;
-        final float xc = (mParticleSystem.mSimulationView.mWidth - bitmap.getWidth()) * 0.5f;
-        final float yc = (mParticleSystem.mSimulationView.mHeight - bitmap.getHeight()) * 0.5f;
-        final float x = xc + sConvertor.convertToScreenX(mPosX) ;
-        final float y = yc - sConvertor.convertToScreenY(mPosY) ;
+        final float xc = (mParticleSystem.mWidth - bitmap.getWidth()) * 0.5f;
+        final float yc = (mParticleSystem.mHeight - bitmap.getHeight()) * 0.5f;
+        final float x = xc + mConvertor.convertToScreenX(mPosX) ;
+        final float y = yc - mConvertor.convertToScreenY(mPosY) ;
         if( screen_x >= x && screen_x <= x + bitmap.getWidth() ){
         	if( screen_y >= y && screen_y <= y + bitmap.getHeight() ){
         		return true;
@@ -204,6 +251,10 @@ class Particle {
         return false;
 	}
 
+	public boolean isTouched() {
+		return mTouchedBy != -1;
+	}
+
 	public boolean touchedBy(int pointerId) {
 		return mTouchedBy == pointerId;
 	}
@@ -218,9 +269,9 @@ class Particle {
 		//for now, let's just see how making the particle track to your finger works,
 		//then we'll do some weird stuff with integrating forces once the kinks are worked out
 		
-        final float xc = (mParticleSystem.mSimulationView.mWidth - mBitmap.getWidth()) * 0.5f;
-        final float yc = (mParticleSystem.mSimulationView.mHeight - mBitmap.getHeight()) * 0.5f;
-		mPosX = sConvertor.convertToInertialFrameX( event.getX(mTouchedBy) - xc  );
-		mPosY = sConvertor.convertToInertialFrameY( yc - event.getY(mTouchedBy) );
+        final float xc = (mParticleSystem.mWidth - mBitmap.getWidth()) * 0.5f;
+        final float yc = (mParticleSystem.mHeight - mBitmap.getHeight()) * 0.5f;
+		mPosX = mConvertor.convertToInertialFrameX( event.getX(mTouchedBy) - xc  );
+		mPosY = mConvertor.convertToInertialFrameY( yc - event.getY(mTouchedBy) );
 	}
 }
\ No newline at end of file
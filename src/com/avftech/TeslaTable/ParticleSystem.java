@@ -17,39 +17,136 @@
 
 package com.avftech.TeslaTable;
 
-import com.avftech.TeslaTable.R;
+import java.util.Arrays;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.DisplayMetrics;
 
 /**
  *  A mathematical model of a system of particles.  
+ *
+ *  A system holds no reference to the view drawing it and shares no
+ *  state with other systems, so several can be stepped at once on
+ *  different threads, with or without graphics.
  */
 class ParticleSystem {
 
-	final SimulationView mSimulationView;
+	// size of the table in pixels, for hit-testing touches
+	int mWidth;
+	int mHeight;
 
+	// used until the device has been calibrated
 	static final int NUM_PARTICLES = 15;
-    private Particle mBalls[] = new Particle[NUM_PARTICLES];
+	/*
+	 * Every particle the table can ever hold is created up front. The live
+	 * ones are packed at the front of mBalls and the rest of the array is
+	 * the free pool, so spawning and despawning never allocate and the
+	 * integrator always walks a dense range. The pool has room for this
+	 * many orbs on top of the initial ones.
+	 */
+	static final int SPAWN_HEADROOM = 25;
+    private final int mCapacity;
+    private Particle mBalls[];
+    private int mActiveCount;
+    private long mLastT;
+    private float mLastDeltaT;
 	float mHorizontalBound;
 	float mVerticalBound;
+	// pegs and walls on the table, loaded once from the layout resource
+	final ObstacleSet mObstacles;
+	// field of the magnets placed on the table, on top of the device's own
+	final MagneticFieldGrid mMagneticField = new MagneticFieldGrid();
 	private PhysicsEngineConvertor mConvertor;
+	/*
+	 * The system is solved on one thread at a time and owns its random
+	 * stream, so no two systems contend and a given seed replays the
+	 * same run.
+	 */
+	private final FastRandom mRandom;
+	// We do no more than a limited number of iterations
+	static final int NUM_MAX_ITERATIONS = 10;
+	private final int mMaxIterations;
+	/*
+	 * Iterations stop once no pair overlaps by more than this, in meters,
+	 * or by more than this fraction of how far the tilt pushes an orb in
+	 * one step. A resting pile on a tilted table is squeezed by that push
+	 * every frame and never gets much below a fifth of it.
+	 */
+	private static final float PENETRATION_TOLERANCE = Particle.sBallDiameter * 0.01f;
+	private static final float PUSH_TOLERANCE = 0.5f;
+	/*
+	 * The number of iterations is only lowered after this many frames in
+	 * a row ended with every overlap below this fraction of the tolerance.
+	 */
+	private static final int SETTLED_FRAMES = 30;
+	private static final float SETTLED_TOLERANCE = 0.4f;
+	// size of the tilt passed to the last update, in m/s^2
+	private float mTilt;
+	// pairs closer than the diameter plus this margin are kept as contacts
+	private static final float CONTACT_MARGIN = Particle.sBallDiameter * 0.25f;
+	// contacts carried over between frames, as pairs of particle indices
+	private int[] mContactA;
+	private int[] mContactB;
+	private int mContactCount;
+	private int mLastIterationCount;
+	// iterations every frame does, and the frames it has looked settled for
+	private int mHeldIterations;
+	private int mSettledFrames;
+	/*
+	 * Every so often the particles are reordered along a Z-order (Morton)
+	 * curve over the grid cells they sit in, so that neighbours on the
+	 * table are neighbours in mBalls as well.
+	 */
+	private static final int REORDER_INTERVAL = 60;
+	private int mUpdatesSinceReorder;
+	private final int[] mMortonKeys;
+	private final int[] mSortedIndices;
+	private final int[] mScratchKeys;
+	private final int[] mScratchIndices;
+	private final int[] mRadixCounts = new int[256];
+	private final Particle[] mScratchBalls;
+	// old index to new index for the last reorder
+	private final int[] mRemap;
+	// largest squared distance any particle travelled during the last update
+	private float mMaxStepDisplacement2;
 
-    ParticleSystem(SimulationView simulationView, 
-    		       TeslaTableActivity accelerometerPlayActivity,
-    		       PhysicsEngineConvertor convertor) {
-        mSimulationView = simulationView;
+    /**
+     * @param ball sprite the particles are drawn from, or null to run
+     *             headless
+     * @param obstacles pegs, walls and holes of the table; not shared
+     *             with any other system
+     */
+    ParticleSystem(Bitmap ball,
+    		       ObstacleSet obstacles,
+    		       PhysicsEngineConvertor convertor,
+    		       TableParameters parameters,
+    		       int particleCount,
+    		       int maxIterations,
+    		       long seed) {
         mConvertor = convertor;
+        mMaxIterations = maxIterations;
+        mCapacity = particleCount + SPAWN_HEADROOM;
+        mBalls = new Particle[mCapacity];
+        mContactA = new int[4 * mCapacity];
+        mContactB = new int[4 * mCapacity];
+        mMortonKeys = new int[mCapacity];
+        mSortedIndices = new int[mCapacity];
+        mScratchKeys = new int[mCapacity];
+        mScratchIndices = new int[mCapacity];
+        mScratchBalls = new Particle[mCapacity];
+        mRemap = new int[mCapacity];
+        mRandom = new FastRandom(seed);
+        // particle properties come from their own stream, so changing how
+        // many numbers the solver draws doesn't change the particles
+        final FastRandom particleRandom = mRandom.split();
 		/*
          * Initially our particles have no speed or acceleration
          */
-
-        Bitmap ball = BitmapFactory.decodeResource( accelerometerPlayActivity.getResources(),
-        											R.drawable.ball);
         for (int i = 0; i < getParticles().length; i++) {
-            getParticles()[i] = new Particle(this, ball, mConvertor);
+            getParticles()[i] = new Particle(this, ball, mConvertor, parameters, particleRandom);
+            mRemap[i] = i;
         }
+        mActiveCount = particleCount;
+        mObstacles = obstacles;
     }
 
     /*
@@ -58,19 +155,31 @@ class ParticleSystem {
      */
     private void updatePositions(float sx, float sy, float mx, float my, long timestamp) {
         final long t = timestamp;
-        if (this.mSimulationView.mLastT != 0) {
-            final float dT = (float) (t - this.mSimulationView.mLastT) * (1.0f / 1000000000.0f);
-            if (this.mSimulationView.mLastDeltaT != 0) {
-                final float dTC = dT / this.mSimulationView.mLastDeltaT;
-                final int count = getParticles().length;
+        if (mLastT != 0) {
+            final float dT = (float) (t - mLastT) * (1.0f / 1000000000.0f);
+            if (mLastDeltaT != 0) {
+                final float dTC = dT / mLastDeltaT;
+                final int count = mActiveCount;
+                final MagneticFieldGrid field = mMagneticField;
                 for (int i = 0; i < count; i++) {
                     Particle ball = getParticles()[i];
-                    ball.computePhysics(sx, sy, mx, my, dT, dTC);
+                    field.sample(ball.mPosX, ball.mPosY);
+                    ball.computePhysics(sx, sy, mx + field.getSampleX(), my + field.getSampleY(),
+                                        dT, dTC);
                 }
             }
-            this.mSimulationView.mLastDeltaT = dT;
+            mLastDeltaT = dT;
         }
-        this.mSimulationView.mLastT = t;
+        mLastT = t;
+    }
+
+    /**
+     * Forget the time of the last update, so that the next one doesn't
+     * integrate over the time the simulation spent paused.
+     */
+    public void resetClock() {
+        mLastT = 0;
+        mLastDeltaT = 0;
     }
 
     /*
@@ -79,63 +188,317 @@ class ParticleSystem {
      * collisions.
      */
     public void update(float sx, float sy, float mx, float my,long now) {
+        SimulationTrace.begin(SimulationTrace.UPDATE);
+        if (++mUpdatesSinceReorder >= REORDER_INTERVAL) {
+            reorderParticles();
+            mUpdatesSinceReorder = 0;
+        }
+        final Particle[] balls = getParticles();
+        for (int i = 0; i < mActiveCount; i++) {
+            balls[i].beginStep();
+        }
+        mMagneticField.update();
         // update the system's positions
+        mTilt = (float) Math.sqrt(sx * sx + sy * sy);
         updatePositions(sx, sy, mx, my, now);
         resolveCollisions();   
+        removeSunkParticles();
+        float max = 0;
+        for (int i = 0; i < mActiveCount; i++) {
+            final float d2 = balls[i].getStepDisplacement2();
+            if (d2 > max) {
+                max = d2;
+            }
+        }
+        mMaxStepDisplacement2 = max;
+        SimulationTrace.end(SimulationTrace.UPDATE);
+    }
+
+    /**
+     * @return the squared distance, in meters, travelled by the fastest
+     *         particle during the last call to {@link #update}
+     */
+    public float getMaxStepDisplacement2() {
+        return mMaxStepDisplacement2;
     }
 
     private void resolveCollisions() {
-    	// We do no more than a limited number of iterations
-        final int NUM_MAX_ITERATIONS = 10;
+        final Particle[] balls = getParticles();
+        final int count = mActiveCount;
+
+        SimulationTrace.begin(SimulationTrace.SOLVER_ITERATION);
+        // warm start from the contacts we found last frame
+        final int cached = mContactCount;
+        for (int c = 0; c < cached; c++) {
+            resolvePair(balls[mContactA[c]], balls[mContactB[c]]);
+        }
 
         /*
          * Resolve collisions, each particle is tested against every
          * other particle for collision. If a collision is detected the
          * particle is moved away using a virtual spring of infinite
-         * stiffness.
+         * stiffness. Pairs that touch or nearly touch are remembered as
+         * contacts, so further iterations and the next frame only need
+         * to revisit those.
          */
-        boolean more = true;
-        final int count = getParticles().length;
-        for (int k = 0; k < NUM_MAX_ITERATIONS && more; k++) {
-            more = false;
-            for (int i = 0; i < count; i++) {
-                Particle curr = getParticles()[i];
-                for (int j = i + 1; j < count; j++) {
-                    Particle ball = getParticles()[j];
-                    float dx = ball.mPosX - curr.mPosX;
-                    float dy = ball.mPosY - curr.mPosY;
-                    float dd = dx * dx + dy * dy;
-                    // Check for collisions
-                    if (dd <= Particle.sBallDiameter2) {
-                        /*
-                         * add a little bit of entropy, after all nothing is
-                         * perfect in the universe.
-                         */
-                        dx += ((float) Math.random() - 0.5f) * 0.00001f;
-                        dy += ((float) Math.random() - 0.5f) * 0.00001f;
-                        dd = dx * dx + dy * dy;
-                        // simulate the spring
-                        final float d = (float) Math.sqrt(dd);
-                        final float c = (0.5f * (Particle.sBallDiameter - d)) / d;
-                        curr.mPosX -= dx * c;
-                        curr.mPosY -= dy * c;
-                        ball.mPosX += dx * c;
-                        ball.mPosY += dy * c;
-                        more = true;
-                    }
+        final float contactDistance = Particle.sBallDiameter + CONTACT_MARGIN;
+        final float contactDistance2 = contactDistance * contactDistance;
+        mContactCount = 0;
+        float maxPenetration = 0;
+        for (int i = 0; i < count; i++) {
+            Particle curr = balls[i];
+            for (int j = i + 1; j < count; j++) {
+                Particle ball = balls[j];
+                final float dx = ball.mPosX - curr.mPosX;
+                final float dy = ball.mPosY - curr.mPosY;
+                if (dx * dx + dy * dy < contactDistance2) {
+                    addContact(i, j);
+                    maxPenetration = Math.max(maxPenetration, resolvePair(curr, ball));
                 }
-                /*
-                 * Finally make sure the particle doesn't intersect
-                 * with the walls.
-                 */
-                curr.resolveCollisionWithBounds();
             }
+            /*
+             * Finally make sure the particle doesn't intersect
+             * with the obstacles or the walls.
+             */
+            mObstacles.resolveCollision(curr);
+            curr.resolveCollisionWithBounds();
+        }
+        SimulationTrace.end(SimulationTrace.SOLVER_ITERATION);
+
+        /*
+         * We do no more than a limited number of iterations. The count may
+         * rise at once but only falls by one after the pile has looked
+         * settled for a while: each change of the count moves the point
+         * the pile rests at, so a count that keeps changing keeps the
+         * pile moving.
+         */
+        final float tolerance = Math.max(PENETRATION_TOLERANCE,
+                PUSH_TOLERANCE * mTilt * mLastDeltaT * mLastDeltaT);
+        final int minIterations = mHeldIterations;
+        int iterations = 1;
+        while (iterations < mMaxIterations
+                && (maxPenetration > tolerance || iterations < minIterations)) {
+            SimulationTrace.begin(SimulationTrace.SOLVER_ITERATION);
+            maxPenetration = 0;
+            for (int c = 0; c < mContactCount; c++) {
+                maxPenetration = Math.max(maxPenetration,
+                        resolvePair(balls[mContactA[c]], balls[mContactB[c]]));
+            }
+            for (int i = 0; i < count; i++) {
+                mObstacles.resolveCollision(balls[i]);
+                balls[i].resolveCollisionWithBounds();
+            }
+            iterations++;
+            SimulationTrace.end(SimulationTrace.SOLVER_ITERATION);
+        }
+        mLastIterationCount = iterations;
+        if (iterations > mHeldIterations) {
+            mHeldIterations = iterations;
+            mSettledFrames = 0;
+        } else if (maxPenetration >= SETTLED_TOLERANCE * tolerance) {
+            mSettledFrames = 0;
+        } else if (++mSettledFrames == SETTLED_FRAMES) {
+            mHeldIterations--;
+            mSettledFrames = 0;
         }
 	}
+
+    /*
+     * Push two overlapping particles apart.
+     *
+     * @return how deep the particles overlapped, 0 if they didn't
+     */
+    private float resolvePair(Particle curr, Particle ball) {
+        float dx = ball.mPosX - curr.mPosX;
+        float dy = ball.mPosY - curr.mPosY;
+        float dd = dx * dx + dy * dy;
+        // Check for collisions
+        if (dd > Particle.sBallDiameter2) {
+            return 0;
+        }
+        /*
+         * add a little bit of entropy, after all nothing is
+         * perfect in the universe.
+         */
+        dx += (mRandom.nextFloat() - 0.5f) * 0.00001f;
+        dy += (mRandom.nextFloat() - 0.5f) * 0.00001f;
+        dd = dx * dx + dy * dy;
+        // simulate the spring
+        final float d = (float) Math.sqrt(dd);
+        final float penetration = Particle.sBallDiameter - d;
+        final float c = (0.5f * penetration) / d;
+        curr.mPosX -= dx * c;
+        curr.mPosY -= dy * c;
+        ball.mPosX += dx * c;
+        ball.mPosY += dy * c;
+        return penetration;
+    }
+
+    private void addContact(int a, int b) {
+        if (mContactCount == mContactA.length) {
+            // only grows while the table fills up, never on a steady frame
+            final int capacity = mContactA.length * 2;
+            final int[] contactA = new int[capacity];
+            final int[] contactB = new int[capacity];
+            System.arraycopy(mContactA, 0, contactA, 0, mContactCount);
+            System.arraycopy(mContactB, 0, contactB, 0, mContactCount);
+            mContactA = contactA;
+            mContactB = contactB;
+        }
+        mContactA[mContactCount] = a;
+        mContactB[mContactCount] = b;
+        mContactCount++;
+    }
+
+    /*
+     * Sorts the particles by the Morton key of the grid cell they are in,
+     * one ball diameter per cell. The sort is a stable LSD radix sort, so
+     * particles sharing a cell keep their relative order. Anything that
+     * lives on the particle itself, such as the pointer it is touched by,
+     * moves with it; indices held elsewhere are translated with
+     * remapIndex().
+     */
+    private void reorderParticles() {
+        final Particle[] balls = getParticles();
+        final int count = mActiveCount;
+        final float invCell = 1.0f / Particle.sBallDiameter;
+        for (int i = 0; i < count; i++) {
+            final int cx = clampCell((int) ((balls[i].mPosX + mHorizontalBound) * invCell));
+            final int cy = clampCell((int) ((balls[i].mPosY + mVerticalBound) * invCell));
+            mMortonKeys[i] = spreadBits(cx) | (spreadBits(cy) << 1);
+            mSortedIndices[i] = i;
+        }
+
+        int[] keys = mMortonKeys;
+        int[] indices = mSortedIndices;
+        int[] scratchKeys = mScratchKeys;
+        int[] scratchIndices = mScratchIndices;
+        final int[] counts = mRadixCounts;
+        for (int shift = 0; shift < 32; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) {
+                counts[(keys[i] >>> shift) & 0xFF]++;
+            }
+            int total = 0;
+            for (int b = 0; b < 256; b++) {
+                final int c = counts[b];
+                counts[b] = total;
+                total += c;
+            }
+            for (int i = 0; i < count; i++) {
+                final int dst = counts[(keys[i] >>> shift) & 0xFF]++;
+                scratchKeys[dst] = keys[i];
+                scratchIndices[dst] = indices[i];
+            }
+            int[] t = keys; keys = scratchKeys; scratchKeys = t;
+            t = indices; indices = scratchIndices; scratchIndices = t;
+        }
+        // after an even number of passes the result is back in mSortedIndices
+
+        for (int k = 0; k < count; k++) {
+            final int old = mSortedIndices[k];
+            mScratchBalls[k] = balls[old];
+            mRemap[old] = k;
+        }
+        System.arraycopy(mScratchBalls, 0, balls, 0, count);
+        for (int c = 0; c < mContactCount; c++) {
+            mContactA[c] = mRemap[mContactA[c]];
+            mContactB[c] = mRemap[mContactB[c]];
+        }
+    }
+
+    private static int clampCell(int cell) {
+        return Math.max(0, Math.min(0xFFFF, cell));
+    }
+
+    // interleave a zero bit above each of the low 16 bits
+    private static int spreadBits(int v) {
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    /**
+     * Translate a particle index taken before the last reorder into its
+     * current index. Only valid until the next reorder.
+     */
+    public int remapIndex(int oldIndex) {
+        return mRemap[oldIndex];
+    }
+
+    /*
+     * Orbs which roll into a hole leave the table, unless somebody is
+     * holding on to them.
+     */
+    private void removeSunkParticles() {
+        final Particle[] balls = getParticles();
+        int i = 0;
+        while (i < mActiveCount) {
+            final Particle p = balls[i];
+            if (!p.isTouched() && mObstacles.isInHole(p.mPosX, p.mPosY)) {
+                // the last live particle takes this slot, look at it again
+                despawn(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Take a particle from the pool and put it at rest at (x, y), in
+     * meters.
+     *
+     * @return the new particle, or null if the pool is exhausted
+     */
+    public Particle spawn(float x, float y) {
+        if (mActiveCount == mCapacity) {
+            return null;
+        }
+        final Particle p = mBalls[mActiveCount++];
+        p.reset(x, y);
+        return p;
+    }
+
+    /**
+     * Return the particle at index i to the pool. The last live particle
+     * is moved into its slot, so indices held across this call must be
+     * refreshed.
+     *
+     * @throws IndexOutOfBoundsException if i isn't a live particle
+     */
+    public void despawn(int i) {
+        if (i < 0 || i >= mActiveCount) {
+            throw new IndexOutOfBoundsException("No live particle at " + i
+                    + ", " + mActiveCount + " on the table");
+        }
+        final int last = --mActiveCount;
+        final Particle removed = mBalls[i];
+        mBalls[i] = mBalls[last];
+        mBalls[last] = removed;
+        removed.handleActionUp();
+
+        /*
+         * The cached contacts may name either slot. Rather than rewrite
+         * them, forget them all; the next frame finds them again and only
+         * loses its warm start.
+         */
+        mContactCount = 0;
+    }
+
+    /**
+     * @return the number of solver iterations the last call to
+     *         {@link #update} needed to converge, at most the
+     *         maximum given at construction
+     */
+    public int getLastIterationCount() {
+        return mLastIterationCount;
+    }
     
     
 	public int getParticleCount() {
-        return getParticles().length;
+        return mActiveCount;
     }
 
     public float getPosX(int i) {
@@ -147,21 +510,35 @@ class ParticleSystem {
     }
 
 	public void onSizeChanged(int w, int h) {
+		mWidth = w;
+		mHeight = h;
         //Calculate the new walls of the Particle System
         float horizontalBound = mConvertor.convertToInertialFrameX(w) * 0.5f;
         float verticalBound = mConvertor.convertToInertialFrameY(h)  * 0.5f;
         updateBounds(horizontalBound,verticalBound);		
 	}
 	
-	private void updateBounds(float horizontalBound, float verticalBound) {
+	/**
+	 * Set the walls of the table directly, in meters from its centre.
+	 */
+	void updateBounds(float horizontalBound, float verticalBound) {
 		mHorizontalBound = horizontalBound;
 		mVerticalBound = verticalBound;	
+		mMagneticField.setBounds(horizontalBound, verticalBound);
 	}
 
 	public Bitmap getBitmap(int i) {
 		return getParticles()[i].mBitmap;
 	}
 
+	public int getColor(int i) {
+		return getParticles()[i].mColor;
+	}
+
+	/**
+	 * @return the particle storage; only the first getParticleCount()
+	 *         entries are on the table
+	 */
 	public Particle[] getParticles() {
 		return mBalls;
 	}
@@ -32,8 +32,12 @@ public class PhysicsEngineConvertor {
     
 
 	PhysicsEngineConvertor(DisplayMetrics metrics){
-        mMetersToPixelsX = metrics.xdpi / 0.0254f;
-        mMetersToPixelsY = metrics.ydpi / 0.0254f;
+		this(metrics.xdpi, metrics.ydpi);
+	}
+
+	PhysicsEngineConvertor(float xdpi, float ydpi){
+        mMetersToPixelsX = xdpi / 0.0254f;
+        mMetersToPixelsY = ydpi / 0.0254f;
 	}
 	
 	public float convertToInertialFrameX(float x){
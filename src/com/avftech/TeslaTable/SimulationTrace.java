@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Trace sections around the stages of the simulation pipeline.
+ *
+ * On devices which support it the sections go to android.os.Trace, so
+ * they show up in systrace and Perfetto next to the sensor and render
+ * threads. When a {@link TraceEventWriter} is attached they are also
+ * written out as Chrome trace events.
+ *
+ * Sections must be strictly nested on each thread, and the names should
+ * be the constants below so that tracing doesn't allocate.
+ */
+final class SimulationTrace {
+
+	static final String UPDATE = "ParticleSystem.update";
+	static final String SOLVER_ITERATION = "resolveCollisions iteration";
+	static final String SENSOR_CHANGED = "onSensorChanged";
+	static final String TOUCH = "onTouchEvent";
+	static final String DRAW = "onDraw";
+
+	private static final boolean sPlatformTrace = isPlatformTraceAvailable();
+
+	private static volatile TraceEventWriter sEventWriter;
+
+	private SimulationTrace() {
+	}
+
+	private static boolean isPlatformTraceAvailable() {
+		try {
+			// android.os.Trace only exists from Jelly Bean MR2 on
+			return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+		} catch (RuntimeException e) {
+			// running headless on a desktop JVM against the stub android.jar
+			return false;
+		} catch (ExceptionInInitializerError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Send trace events to writer as well, or stop doing so if null.
+	 */
+	static void setEventWriter(TraceEventWriter writer) {
+		sEventWriter = writer;
+	}
+
+	static void begin(String name) {
+		if (sPlatformTrace) {
+			PlatformTrace.begin(name);
+		}
+		final TraceEventWriter writer = sEventWriter;
+		if (writer != null) {
+			writer.record(name, TraceEventWriter.PHASE_BEGIN);
+		}
+	}
+
+	static void end(String name) {
+		final TraceEventWriter writer = sEventWriter;
+		if (writer != null) {
+			writer.record(name, TraceEventWriter.PHASE_END);
+		}
+		if (sPlatformTrace) {
+			PlatformTrace.end();
+		}
+	}
+
+	/*
+	 * Kept in its own class so older devices never have to resolve
+	 * android.os.Trace.
+	 */
+	private static final class PlatformTrace {
+		static void begin(String name) {
+			Trace.beginSection(name);
+		}
+
+		static void end() {
+			Trace.endSection();
+		}
+	}
+}
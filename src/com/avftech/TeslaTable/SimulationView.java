@@ -17,18 +17,25 @@
 
 package com.avftech.TeslaTable;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import com.avftech.TeslaTable.R;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.BitmapFactory.Options;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.util.DisplayMetrics;
+import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.Surface;
 import android.view.View;
@@ -46,12 +53,24 @@ class SimulationView extends View implements SensorEventListener {
 	private final TeslaTableActivity accelerometerPlayActivity;
     private Sensor mAccelerometer;
     private Sensor mMagnetometer;
-    long mLastT;
-    float mLastDeltaT;
 
 	int mWidth;
 	int mHeight;
     private Bitmap mWood;
+    // shown until the wood has been decoded
+    private static final int TABLE_COLOR = 0xff8b5a2b;
+    private final Paint mObstaclePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mHolePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mMagnetPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mParticlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // how the orbs are drawn, one of DeviceCalibration's render paths
+    private int mRenderPath = DeviceCalibration.RENDER_SPRITES;
+    // size of a magnet on screen, and how close a finger must be to drag or remove it
+    private static final float MAGNET_RADIUS = 0.002f;
+    // the magnet being dragged and the pointer dragging it, -1 when none is
+    private int mDraggedMagnet = -1;
+    private int mDraggedMagnetPointer;
+    private final GestureDetector mGestureDetector;
     private float mXOrigin;
     private float mYOrigin;
     private float mSensorX;
@@ -59,6 +78,20 @@ class SimulationView extends View implements SensorEventListener {
     private long mSensorTimeStamp;
     private long mCpuTimeStamp;
     private ParticleSystem mParticleSystem;
+    /*
+     * Decoding the assets and building the particles happens on this
+     * thread, so the first frame doesn't have to wait for them.
+     */
+    private final ExecutorService mLoader = Executors.newSingleThreadExecutor(
+    		new ThreadFactory() {
+    	@Override
+    	public Thread newThread(Runnable r) {
+    		final Thread thread = new Thread(r, "TeslaTableLoader");
+    		thread.setDaemon(true);
+    		return thread;
+    	}
+    });
+    private boolean mLoading;
     private DisplayMetrics mDisplayMetrics;
 
 	private PhysicsEngineConvertor mConvertor;
@@ -71,6 +104,30 @@ class SimulationView extends View implements SensorEventListener {
 	private float mMSensorY;
 	private float mMSensorX;
 
+	/*
+	 * Frame scheduling. Once nothing has moved by more than a fraction of a
+	 * pixel for a while and nobody is touching the table, we stop
+	 * requesting frames. A touch, or a sensor change big enough to move a
+	 * resting orb by that much, wakes the simulation up again.
+	 */
+	private static final int QUIESCENT_FRAMES_BEFORE_IDLE = 30;
+	private static final float QUIESCENT_MOVEMENT_PIXELS = 0.1f;
+	private static final float FRAME_SECONDS = 1.0f / 60.0f;
+	// changes smaller than this are sensor noise, m/s^2 and uT
+	private static final float ACCELEROMETER_NOISE = 0.02f;
+	private static final float MAGNETOMETER_NOISE = 0.3f;
+	private final float mQuiescentMovement2;
+	private final float mAccelerometerWakeDelta;
+	private final float mMagnetometerWakeDelta;
+	private int mQuiescentFrames;
+	private boolean mIdle;
+	private boolean mTouchActive;
+	// sensor readings used for the last frame drawn
+	private float mFrameSensorX;
+	private float mFrameSensorY;
+	private float mFrameMSensorX;
+	private float mFrameMSensorY;
+
     public void startSimulation() {
         
     	// Using SENSOR_DELAY_UI serves as alow-pass filter to 
@@ -80,15 +137,41 @@ class SimulationView extends View implements SensorEventListener {
         this.accelerometerPlayActivity.mSensorManager.registerListener(this, mMagnetometer, 
         		SensorManager.SENSOR_DELAY_UI);
         
-        if (this.mParticleSystem == null){
-            mParticleSystem = new ParticleSystem(this, accelerometerPlayActivity, mConvertor);
+        if (this.mParticleSystem == null && !mLoading){
+            startLoading();
         }
+        wake();
     }
 
     public void stopSimulation() {
         this.accelerometerPlayActivity.mSensorManager.unregisterListener(this);
     }
 
+    /**
+     * Benchmark the device again and rebuild the table with whatever it
+     * can sustain.
+     */
+    public void recalibrate() {
+        if (mLoading) {
+            return;
+        }
+        DeviceCalibration.clear(getContext());
+        mParticleSystem = null;
+        startLoading();
+        invalidate();
+    }
+
+    private void startLoading() {
+        mLoading = true;
+        final boolean needWood = mWood == null;
+        mLoader.execute(new Runnable() {
+        	@Override
+        	public void run() {
+        		loadSimulation(needWood);
+        	}
+        });
+    }
+
     public SimulationView(TeslaTableActivity accelerometerPlayActivity, Context context,
     		              PhysicsEngineConvertor convertor) {
         super(context);
@@ -97,11 +180,118 @@ class SimulationView extends View implements SensorEventListener {
         																Sensor.TYPE_ACCELEROMETER);
         mMagnetometer = this.accelerometerPlayActivity.mSensorManager.getDefaultSensor(
 				Sensor.TYPE_MAGNETIC_FIELD);
-        Options opts = new Options();
-        opts.inDither = true;
-        opts.inPreferredConfig = Bitmap.Config.RGB_565;
-        mWood = BitmapFactory.decodeResource(getResources(), R.drawable.wood, opts);
+        mObstaclePaint.setColor(Color.DKGRAY);
+        mObstaclePaint.setStrokeCap(Paint.Cap.ROUND);
+        mHolePaint.setColor(Color.BLACK);
+        mMagnetPaint.setColor(Color.RED);
         mConvertor = convertor;
+        mGestureDetector = new GestureDetector(context,
+        		new GestureDetector.SimpleOnGestureListener() {
+        	@Override
+        	public boolean onSingleTapUp(MotionEvent e) {
+        		return handleTap(e.getX(), e.getY());
+        	}
+
+        	@Override
+        	public void onLongPress(MotionEvent e) {
+        		handleLongPress(e.getX(), e.getY());
+        	}
+        });
+        final float quiescentMovement = Math.min(
+        		mConvertor.convertToInertialFrameX(QUIESCENT_MOVEMENT_PIXELS),
+        		mConvertor.convertToInertialFrameY(QUIESCENT_MOVEMENT_PIXELS));
+        mQuiescentMovement2 = quiescentMovement * quiescentMovement;
+        /*
+         * With friction f a change a in acceleration settles at a * dt^2 / f
+         * per frame, so this is the smallest change that moves a resting
+         * orb by more than the quiescent distance. Charged orbs feel the
+         * field scaled by their charge, which is at most half the spread.
+         */
+        final TableParameters table = TableParameters.DEFAULT;
+        final float wakeAcceleration = quiescentMovement * table.mFriction
+                / (FRAME_SECONDS * FRAME_SECONDS);
+        mAccelerometerWakeDelta = Math.max(ACCELEROMETER_NOISE, wakeAcceleration);
+        mMagnetometerWakeDelta = Math.max(MAGNETOMETER_NOISE,
+                wakeAcceleration / (table.mChargeSpread * 0.5f));
+    }
+
+    /*
+     * Runs on the loader thread. The table is shown as soon as the wood is
+     * decoded, and the orbs join it once all their sprites are ready. The
+     * first time round the device is calibrated before building them.
+     */
+    private void loadSimulation(boolean needWood) {
+        if (needWood) {
+            Options opts = new Options();
+            opts.inDither = true;
+            opts.inPreferredConfig = Bitmap.Config.RGB_565;
+            final Bitmap wood = BitmapFactory.decodeResource(getResources(), R.drawable.wood, opts);
+            post(new Runnable() {
+            	@Override
+            	public void run() {
+            		mWood = wood;
+            		invalidate();
+            	}
+            });
+        }
+
+        final Bitmap ball = BitmapFactory.decodeResource(getResources(), R.drawable.ball);
+        final ObstacleSet obstacles = ObstacleSet.load(getResources(), R.raw.table);
+        DeviceCalibration calibration = DeviceCalibration.load(getContext());
+        if (calibration == null) {
+            final DisplayMetrics metrics = getResources().getDisplayMetrics();
+            calibration = DeviceCalibration.run(this, ball, obstacles, mConvertor,
+                                                metrics.widthPixels, metrics.heightPixels);
+            calibration.save(getContext());
+        }
+        final int renderPath = calibration.getRenderPath();
+        final ParticleSystem particleSystem =
+        	new ParticleSystem(ball, obstacles, mConvertor, TableParameters.DEFAULT,
+        	                   calibration.getParticleCount(), calibration.getMaxIterations(),
+        	                   System.nanoTime());
+        post(new Runnable() {
+        	@Override
+        	public void run() {
+        		onParticleSystemReady(particleSystem, renderPath);
+        	}
+        });
+    }
+
+    private void onParticleSystemReady(ParticleSystem particleSystem, int renderPath) {
+        mLoading = false;
+        mParticleSystem = particleSystem;
+        mRenderPath = renderPath;
+        if (mWidth != 0 && mHeight != 0) {
+            particleSystem.onSizeChanged(mWidth, mHeight);
+        }
+        wake();
+    }
+
+    /**
+     * Resume requesting frames if we had stopped because the table was
+     * at rest.
+     */
+    private void wake() {
+        mQuiescentFrames = 0;
+        if (mIdle) {
+            mIdle = false;
+            // the integrator must not see the time spent idle as one huge step
+            if (mParticleSystem != null) {
+                mParticleSystem.resetClock();
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * @return true when the sensor readings differ from the ones used for
+     *         the last frame by enough to move the particles
+     */
+    private boolean sensorsChangedSinceLastFrame() {
+        return Math.abs(mSensorX - mFrameSensorX) > mAccelerometerWakeDelta
+            || Math.abs(mSensorY - mFrameSensorY) > mAccelerometerWakeDelta
+            || Math.abs(mMSensorX - mFrameMSensorX) > mMagnetometerWakeDelta
+            || Math.abs(mMSensorY - mFrameMSensorY) > mMagnetometerWakeDelta;
     }
 
 	@Override
@@ -109,11 +299,14 @@ class SimulationView extends View implements SensorEventListener {
         // compute the origin of the screen 
     	mWidth = w;
     	mHeight = h;
-        mParticleSystem.onSizeChanged(w,h);
+    	if (mParticleSystem != null) {
+    		mParticleSystem.onSizeChanged(w,h);
+    	}
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
+        SimulationTrace.begin(SimulationTrace.SENSOR_CHANGED);
         if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER){
         
         /*
@@ -175,13 +368,31 @@ class SimulationView extends View implements SensorEventListener {
             mMSensorTimeStamp = event.timestamp;
             mMCpuTimeStamp = System.nanoTime();
             }
+
+        if (mIdle && sensorsChangedSinceLastFrame()) {
+            wake();
+        }
+        SimulationTrace.end(SimulationTrace.SENSOR_CHANGED);
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
+        SimulationTrace.begin(SimulationTrace.DRAW);
 
         //draw the background
-        canvas.drawBitmap(mWood, 0, 0, null);
+        if (mWood != null) {
+            canvas.drawBitmap(mWood, 0, 0, null);
+        } else {
+            canvas.drawColor(TABLE_COLOR);
+        }
+        if (mParticleSystem == null) {
+            // still loading, onParticleSystemReady() will start the frames
+            SimulationTrace.end(SimulationTrace.DRAW);
+            return;
+        }
+
+        drawObstacles(canvas, mParticleSystem.mObstacles);
+        drawMagnets(canvas, mParticleSystem.mMagneticField);
 
         //compute the new position of our object, based on accelerometer
         //data and present time.
@@ -191,7 +402,38 @@ class SimulationView extends View implements SensorEventListener {
         final float sy = mSensorY;
         final float mx = mMSensorX;
         final float my = mMSensorY;
+        mFrameSensorX = sx;
+        mFrameSensorY = sy;
+        mFrameMSensorX = mx;
+        mFrameMSensorY = my;
         particleSystem.update(sx, sy, mx, my, now);
+        drawParticles(canvas, particleSystem, mRenderPath, mParticlePaint, mWidth, mHeight);
+
+        /*
+         * Keep redrawing asap until the table comes to rest. A sensor
+         * change that matters shows up as movement, so noise alone can't
+         * keep us awake.
+         */
+        if (!mTouchActive
+                && particleSystem.getMaxStepDisplacement2() < mQuiescentMovement2) {
+            mQuiescentFrames++;
+        } else {
+            mQuiescentFrames = 0;
+        }
+        if (mQuiescentFrames < QUIESCENT_FRAMES_BEFORE_IDLE) {
+            invalidate();
+        } else {
+            mIdle = true;
+        }
+        SimulationTrace.end(SimulationTrace.DRAW);
+    }
+
+    /*
+     * Also used by DeviceCalibration to time the render paths, so it only
+     * depends on its arguments and the convertor.
+     */
+    void drawParticles(Canvas canvas, ParticleSystem particleSystem, int renderPath,
+                       Paint paint, int width, int height) {
         final int count = particleSystem.getParticleCount();
         for (int i = 0; i < count; i++) {
             /*
@@ -199,16 +441,57 @@ class SimulationView extends View implements SensorEventListener {
              * the sensors coordinate system with the origin in the center
              * of the screen and the unit is the meter.
              */
-            final Bitmap bitmap = mParticleSystem.getBitmap(i);
-            final float xc = (mWidth - bitmap.getWidth()) * 0.5f;
-            final float yc = (mHeight - bitmap.getHeight()) * 0.5f;
-            final float x = xc + mConvertor.convertToScreenX( mParticleSystem.getPosX(i) );
-            final float y = yc - mConvertor.convertToScreenY( mParticleSystem.getPosY(i) );
-            canvas.drawBitmap(bitmap, x, y, null);
+            final Bitmap bitmap = particleSystem.getBitmap(i);
+            final float xc = (width - bitmap.getWidth()) * 0.5f;
+            final float yc = (height - bitmap.getHeight()) * 0.5f;
+            final float x = xc + mConvertor.convertToScreenX( particleSystem.getPosX(i) );
+            final float y = yc - mConvertor.convertToScreenY( particleSystem.getPosY(i) );
+            if (renderPath == DeviceCalibration.RENDER_SPRITES) {
+                canvas.drawBitmap(bitmap, x, y, null);
+            } else {
+                final float r = bitmap.getWidth() * 0.5f;
+                paint.setColor(particleSystem.getColor(i));
+                canvas.drawCircle(x + r, y + r, r, paint);
+            }
         }
+    }
 
-        // and make sure to redraw asap
-        invalidate();
+    private void drawObstacles(Canvas canvas, ObstacleSet obstacles) {
+        final float xc = mWidth * 0.5f;
+        final float yc = mHeight * 0.5f;
+        final int holes = obstacles.getHoleCount();
+        for (int i = 0; i < holes; i++) {
+            canvas.drawCircle(xc + mConvertor.convertToScreenX(obstacles.getHoleX(i)),
+                              yc - mConvertor.convertToScreenY(obstacles.getHoleY(i)),
+                              mConvertor.convertToScreenX(obstacles.getHoleRadius(i)),
+                              mHolePaint);
+        }
+        final int count = obstacles.getCount();
+        for (int i = 0; i < count; i++) {
+            final float ax = xc + mConvertor.convertToScreenX(obstacles.getAx(i));
+            final float ay = yc - mConvertor.convertToScreenY(obstacles.getAy(i));
+            final float bx = xc + mConvertor.convertToScreenX(obstacles.getBx(i));
+            final float by = yc - mConvertor.convertToScreenY(obstacles.getBy(i));
+            final float r = mConvertor.convertToScreenX(obstacles.getRadius(i));
+            if (ax == bx && ay == by) {
+                canvas.drawCircle(ax, ay, r, mObstaclePaint);
+            } else {
+                mObstaclePaint.setStrokeWidth(2 * r);
+                canvas.drawLine(ax, ay, bx, by, mObstaclePaint);
+            }
+        }
+    }
+
+    private void drawMagnets(Canvas canvas, MagneticFieldGrid field) {
+        final float xc = mWidth * 0.5f;
+        final float yc = mHeight * 0.5f;
+        final float r = mConvertor.convertToScreenX(MAGNET_RADIUS);
+        final int count = field.getMagnetCount();
+        for (int i = 0; i < count; i++) {
+            canvas.drawCircle(xc + mConvertor.convertToScreenX(field.getMagnetX(i)),
+                              yc - mConvertor.convertToScreenY(field.getMagnetY(i)),
+                              r, mMagnetPaint);
+        }
     }
 
     @Override
@@ -217,31 +500,138 @@ class SimulationView extends View implements SensorEventListener {
     	
     @Override
     public boolean onTouchEvent(MotionEvent event){
+    	if (mParticleSystem == null) {
+    		return false;
+    	}
+    	SimulationTrace.begin(SimulationTrace.TOUCH);
+    	mGestureDetector.onTouchEvent(event);
+    	final boolean handled = dispatchTouchAction(event);
+    	SimulationTrace.end(SimulationTrace.TOUCH);
+    	return handled;
+    }
+
+    private boolean dispatchTouchAction(MotionEvent event){
     	switch(event.getAction()){
     	case(MotionEvent.ACTION_DOWN):
+    		mTouchActive = true;
     	    handleActionDown(event);
+    	    handleMagnetDown(event);
     		break;
     	case(MotionEvent.ACTION_UP):
+    		mTouchActive = false;
     	    handleActionUp(event);
+    	    mDraggedMagnet = -1;
+    		break;
+    	case(MotionEvent.ACTION_CANCEL):
+    		// a parent took the gesture over, so no pointer is down any more
+    		mTouchActive = false;
+    	    handleActionCancel();
+    	    mDraggedMagnet = -1;
     		break;
     	case(MotionEvent.ACTION_MOVE):
+    		mTouchActive = true;
     	    handleActionMove(event);
+    	    handleMagnetMove(event);
     		break;
     	default:
     		return false;
     	}
-    	invalidate();
+    	wake();
     	return true;
     }
 
 	
+    /*
+     * Tapping a spot of the table with neither an orb nor a magnet on it
+     * drops a new orb there.
+     */
+    private boolean handleTap(float screen_x, float screen_y) {
+		final Particle[] particles = mParticleSystem.getParticles();
+		final int count = mParticleSystem.getParticleCount();
+		for (int i = 0; i < count; i++){
+			if( particles[i].intersects(screen_x, screen_y) ){
+				return false;
+			}
+		}
+		// a short drag of a magnet still reaches here as a tap
+		if (mDraggedMagnet != -1) {
+			return false;
+		}
+		final float x = mConvertor.convertToInertialFrameX(screen_x - mWidth * 0.5f);
+		final float y = mConvertor.convertToInertialFrameY(mHeight * 0.5f - screen_y);
+		if (mParticleSystem.mMagneticField.findMagnet(x, y, MAGNET_RADIUS) != -1) {
+			return false;
+		}
+		return mParticleSystem.spawn(x, y) != null;
+    }
+
+    /*
+     * Long-pressing an empty spot of the table places a magnet there, and
+     * long-pressing a magnet takes it away again.
+     */
+    private void handleLongPress(float screen_x, float screen_y) {
+		final Particle[] particles = mParticleSystem.getParticles();
+		final int count = mParticleSystem.getParticleCount();
+		for (int i = 0; i < count; i++){
+			if( particles[i].intersects(screen_x, screen_y) ){
+				return;
+			}
+		}
+		final float x = mConvertor.convertToInertialFrameX(screen_x - mWidth * 0.5f);
+		final float y = mConvertor.convertToInertialFrameY(mHeight * 0.5f - screen_y);
+		final MagneticFieldGrid field = mParticleSystem.mMagneticField;
+		final int magnet = field.findMagnet(x, y, MAGNET_RADIUS);
+		// removing a magnet renumbers the others
+		mDraggedMagnet = -1;
+		if (magnet != -1) {
+			field.removeMagnet(magnet);
+		} else {
+			field.addMagnet(x, y);
+		}
+		wake();
+    }
+
+    /*
+     * Putting a finger on a magnet, rather than on an orb, picks the
+     * magnet up until the finger is lifted.
+     */
+    private void handleMagnetDown(MotionEvent event) {
+		final Particle[] particles = mParticleSystem.getParticles();
+		final int count = mParticleSystem.getParticleCount();
+		for (int i = 0; i < count; i++){
+			if( particles[i].isTouched() ){
+				return;
+			}
+		}
+		final float x = mConvertor.convertToInertialFrameX(event.getX(0) - mWidth * 0.5f);
+		final float y = mConvertor.convertToInertialFrameY(mHeight * 0.5f - event.getY(0));
+		mDraggedMagnet = mParticleSystem.mMagneticField.findMagnet(x, y, MAGNET_RADIUS);
+		mDraggedMagnetPointer = event.getPointerId(0);
+    }
+
+    private void handleMagnetMove(MotionEvent event) {
+		if (mDraggedMagnet == -1) {
+			return;
+		}
+		final int pointerIndex = event.findPointerIndex(mDraggedMagnetPointer);
+		if (pointerIndex == -1) {
+			return;
+		}
+		final float x = mConvertor.convertToInertialFrameX(event.getX(pointerIndex) - mWidth * 0.5f);
+		final float y = mConvertor.convertToInertialFrameY(mHeight * 0.5f - event.getY(pointerIndex));
+		mParticleSystem.mMagneticField.moveMagnet(mDraggedMagnet, x, y);
+    }
+
     private void handleActionDown(MotionEvent event) {
+		final Particle[] particles = mParticleSystem.getParticles();
+		final int count = mParticleSystem.getParticleCount();
 		final int numPointers = event.getPointerCount();
 		for(int pointerIndex = 0;  pointerIndex < numPointers; pointerIndex++){
 			final int pointerId = event.getPointerId(pointerIndex);
 			final float pointer_x  = event.getX(pointerIndex);
 			final float pointer_y  = event.getY(pointerIndex);
-			for (Particle p : mParticleSystem.getParticles()){
+			for (int i = 0; i < count; i++){
+				final Particle p = particles[i];
 				if( p.intersects(pointer_x, pointer_y) ){
 					p.handleActionDownPointer(pointerId);
 				}
@@ -251,10 +641,13 @@ class SimulationView extends View implements SensorEventListener {
 	}
     
 	private void handleActionUp(MotionEvent event) {
+		final Particle[] particles = mParticleSystem.getParticles();
+		final int count = mParticleSystem.getParticleCount();
 		final int numPointers = event.getPointerCount();
 		for(int pointerIndex = 0;  pointerIndex < numPointers; pointerIndex++){
 			final int pointerId = event.getPointerId(pointerIndex);
-			for (Particle p : mParticleSystem.getParticles()){
+			for (int i = 0; i < count; i++){
+				final Particle p = particles[i];
 				if( p.touchedBy(pointerId) ){
 					p.handleActionUp();
 				}
@@ -263,12 +656,25 @@ class SimulationView extends View implements SensorEventListener {
 		
 	}
 
+	private void handleActionCancel() {
+		final Particle[] particles = mParticleSystem.getParticles();
+		final int count = mParticleSystem.getParticleCount();
+		for (int i = 0; i < count; i++){
+			final Particle p = particles[i];
+			if( p.isTouched() ){
+				p.handleActionUp();
+			}
+		}
+	}
 	
 	private void handleActionMove(MotionEvent event) {
+		final Particle[] particles = mParticleSystem.getParticles();
+		final int count = mParticleSystem.getParticleCount();
 		final int numPointers = event.getPointerCount();
 		for(int pointerIndex = 0;  pointerIndex < numPointers; pointerIndex++){
 			final int pointerId = event.getPointerId(pointerIndex);
-			for (Particle p : mParticleSystem.getParticles()){
+			for (int i = 0; i < count; i++){
+				final Particle p = particles[i];
 				if( p.touchedBy(pointerId) ){
 					p.handleActionMove(event);
 				}
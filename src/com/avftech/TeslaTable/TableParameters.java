@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+/**
+ * How the orbs on a table are randomized: the spread of their friction,
+ * mass and charge. Each particle draws its own values from these ranges
+ * when it is created.
+ */
+class TableParameters {
+
+	/** The table the app ships with. */
+	static final TableParameters DEFAULT =
+		new TableParameters(Particle.sFriction, 0.2f, 750.0f, 1250.0f, 0.2f, 0.5f);
+
+	// mean friction of the virtual table and air
+	final float mFriction;
+	// friction is uniform over mFriction +/- half of this
+	final float mFrictionSpread;
+	// mass is uniform over [mMinMass, mMaxMass), 1000 being a full size orb
+	final float mMinMass;
+	final float mMaxMass;
+	// charge is uniform over +/- half of this
+	final float mChargeSpread;
+	// share of the orbs which are sensitive to magnetism
+	final float mChargedFraction;
+
+	TableParameters(float friction, float frictionSpread, float minMass, float maxMass,
+			float chargeSpread, float chargedFraction) {
+		mFriction = friction;
+		mFrictionSpread = frictionSpread;
+		mMinMass = minMass;
+		mMaxMass = maxMass;
+		mChargeSpread = chargeSpread;
+		mChargedFraction = chargedFraction;
+	}
+}
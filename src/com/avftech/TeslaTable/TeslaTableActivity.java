@@ -36,6 +36,8 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
@@ -65,6 +67,11 @@ public class TeslaTableActivity extends Activity {
 	private AssetFileDescriptor mAssetFileDescriptor;
 	private AlertDialog mAlert;
 	private boolean mFirstResume = true;
+	private boolean mResumed;
+	// the music is prepared asynchronously, once, and then paused and restarted
+	private boolean mMusicPreparing;
+	private boolean mMusicPrepared;
+	private static final int MENU_RECALIBRATE = 1;
     
     /** Called when the activity is first created. */
     @Override
@@ -86,6 +93,16 @@ public class TeslaTableActivity extends Activity {
                 .getName());
         
         mMediaPlayer = new MediaPlayer();
+        mMediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+        	@Override
+        	public void onPrepared(MediaPlayer mp) {
+        		mMusicPreparing = false;
+        		mMusicPrepared = true;
+        		if (mResumed) {
+        			startMusic();
+        		}
+        	}
+        });
         
         try {
         	mAssetFileDescriptor = getAssets().openFd("music.mp3");
@@ -124,6 +141,21 @@ public class TeslaTableActivity extends Activity {
         mAlert = builder.create(); 
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_RECALIBRATE, Menu.NONE, "Recalibrate");
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_RECALIBRATE) {
+            mSimulationView.recalibrate();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     private DisplayMetrics initializeDisplayMetrics(){
 		DisplayMetrics dm = new DisplayMetrics(); 
 		getWindowManager().getDefaultDisplay().getMetrics(dm);
@@ -147,13 +179,21 @@ public class TeslaTableActivity extends Activity {
         // Start the simulation
         mSimulationView.startSimulation();
         
-        try {
-			mMediaPlayer.prepare();
-		} catch (IllegalStateException e) {
-			Log.e("TeslaTable", "Couldn't read music data due to IllegalStateException" + e);
-		} catch (IOException e) {
-			Log.e("TeslaTable", "Couldn't read music data due to IOException" + e);
-		}
+        mResumed = true;
+        if (mMusicPrepared) {
+        	startMusic();
+        } else if (!mMusicPreparing) {
+        	mMusicPreparing = true;
+        	try {
+        		mMediaPlayer.prepareAsync();
+        	} catch (IllegalStateException e) {
+        		mMusicPreparing = false;
+        		Log.e("TeslaTable", "Couldn't read music data due to IllegalStateException" + e);
+        	}
+        }
+    }
+
+    private void startMusic() {
         mMediaPlayer.start();
         mMediaPlayer.setLooping(true);
     }
@@ -168,7 +208,10 @@ public class TeslaTableActivity extends Activity {
 
         // Stop the simulation
         mSimulationView.stopSimulation();
-        mMediaPlayer.stop();
+        mResumed = false;
+        if (mMusicPrepared) {
+        	mMediaPlayer.pause();
+        }
         // and release our wake-lock
         mWakeLock.release();
     }
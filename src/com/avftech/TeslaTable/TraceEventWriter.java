@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import android.util.Log;
+
+/**
+ * Writes trace sections as Chrome trace-event JSON, which can be opened
+ * in chrome://tracing or Perfetto.
+ *
+ * Recording only copies the event into a preallocated ring buffer owned
+ * by the calling thread; a background thread formats and writes it, so
+ * the simulation never waits on the disk and threads never wait on each
+ * other. Only if the writer falls a whole buffer behind does the caller
+ * wait for it, so no event is ever lost.
+ */
+class TraceEventWriter implements Runnable {
+
+	static final char PHASE_BEGIN = 'B';
+	static final char PHASE_END = 'E';
+
+	// per recording thread
+	private static final int CAPACITY = 1 << 12;
+	private static final long FLUSH_INTERVAL_MS = 100;
+
+	/*
+	 * The events of one thread. The slots between mTail and mHead belong
+	 * to the writer thread until it moves mTail.
+	 */
+	private static final class Buffer {
+		final String[] mNames = new String[CAPACITY];
+		final char[] mPhases = new char[CAPACITY];
+		final long[] mTimes = new long[CAPACITY];
+		final long mThreadId;
+		// guarded by this
+		long mHead;
+		long mTail;
+
+		Buffer(long threadId) {
+			mThreadId = threadId;
+		}
+	}
+
+	private final ThreadLocal<Buffer> mBuffer = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			final Buffer buffer = new Buffer(Thread.currentThread().getId());
+			synchronized (mBuffers) {
+				mBuffers.add(buffer);
+			}
+			return buffer;
+		}
+	};
+	// guarded by itself
+	private final ArrayList<Buffer> mBuffers = new ArrayList<Buffer>();
+
+	/*
+	 * The writer thread sleeps on this. A recording thread may take it
+	 * while holding its own buffer, never the other way round.
+	 */
+	private final Object mWakeup = new Object();
+	// guarded by mWakeup
+	private boolean mPending;
+	private volatile boolean mClosed;
+
+	private final Writer mOut;
+	private final Thread mThread;
+	// timestamps are written relative to this
+	private final long mStartNanos = System.nanoTime();
+	private boolean mFirstEvent = true;
+
+	TraceEventWriter(File file) throws IOException {
+		mOut = new BufferedWriter(new FileWriter(file), 1 << 16);
+		mOut.write('[');
+		mThread = new Thread(this, "TraceEventWriter");
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	public void record(String name, char phase) {
+		if (mClosed) {
+			return;
+		}
+		final Buffer buffer = mBuffer.get();
+		synchronized (buffer) {
+			while (buffer.mHead - buffer.mTail == CAPACITY && !mClosed) {
+				wakeWriter();
+				try {
+					buffer.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (mClosed) {
+				return;
+			}
+			final int slot = (int) (buffer.mHead & (CAPACITY - 1));
+			buffer.mNames[slot] = name;
+			buffer.mPhases[slot] = phase;
+			buffer.mTimes[slot] = System.nanoTime() - mStartNanos;
+			buffer.mHead++;
+			if (buffer.mHead - buffer.mTail == CAPACITY / 2) {
+				wakeWriter();
+			}
+		}
+	}
+
+	private void wakeWriter() {
+		synchronized (mWakeup) {
+			mPending = true;
+			mWakeup.notifyAll();
+		}
+	}
+
+	/**
+	 * Write out whatever is still buffered, terminate the JSON array and
+	 * close the file. Call it once every thread has stopped recording.
+	 */
+	public void close() {
+		mClosed = true;
+		wakeWriter();
+		try {
+			mThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			boolean closed = false;
+			while (!closed) {
+				synchronized (mWakeup) {
+					if (!mClosed && !mPending) {
+						try {
+							mWakeup.wait(FLUSH_INTERVAL_MS);
+						} catch (InterruptedException e) {
+							mClosed = true;
+						}
+					}
+					mPending = false;
+				}
+				closed = mClosed;
+				for (Buffer buffer : buffers()) {
+					drain(buffer);
+				}
+				mOut.flush();
+			}
+			mOut.write("]\n");
+		} catch (IOException e) {
+			Log.e("TeslaTable", "Couldn't write trace due to IOException" + e);
+		} finally {
+			// don't leave anybody waiting for room that will never come
+			mClosed = true;
+			for (Buffer buffer : buffers()) {
+				synchronized (buffer) {
+					buffer.notifyAll();
+				}
+			}
+			try {
+				mOut.close();
+			} catch (IOException e) {
+				Log.e("TeslaTable", "Couldn't close trace due to IOException" + e);
+			}
+		}
+	}
+
+	private Buffer[] buffers() {
+		synchronized (mBuffers) {
+			return mBuffers.toArray(new Buffer[mBuffers.size()]);
+		}
+	}
+
+	private void drain(Buffer buffer) throws IOException {
+		final long head;
+		final long tail;
+		synchronized (buffer) {
+			head = buffer.mHead;
+			tail = buffer.mTail;
+		}
+		for (long i = tail; i < head; i++) {
+			writeEvent(buffer, (int) (i & (CAPACITY - 1)));
+		}
+		synchronized (buffer) {
+			buffer.mTail = head;
+			buffer.notifyAll();
+		}
+	}
+
+	private void writeEvent(Buffer buffer, int slot) throws IOException {
+		final Writer out = mOut;
+		if (!mFirstEvent) {
+			out.write(",\n");
+		}
+		mFirstEvent = false;
+		out.write("{\"name\":\"");
+		out.write(buffer.mNames[slot]);
+		out.write("\",\"ph\":\"");
+		out.write(buffer.mPhases[slot]);
+		out.write("\",\"pid\":1,\"tid\":");
+		out.write(Long.toString(buffer.mThreadId));
+		// trace event timestamps are in microseconds
+		final long nanos = buffer.mTimes[slot];
+		out.write(",\"ts\":");
+		out.write(Long.toString(nanos / 1000));
+		out.write('.');
+		final long fraction = nanos % 1000;
+		if (fraction < 100) {
+			out.write('0');
+		}
+		if (fraction < 10) {
+			out.write('0');
+		}
+		out.write(Long.toString(fraction));
+		out.write('}');
+	}
+}
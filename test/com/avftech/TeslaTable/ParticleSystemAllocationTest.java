@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/**
+ * Checks that a simulation step doesn't allocate once it has warmed up.
+ * Allocations on the hot path end up as GC pauses, which show up as
+ * dropped frames in long sessions.
+ *
+ * Runs headless on a desktop JVM with android.jar on the class path,
+ * from the project directory; see run-tests.sh. Only the simulation step
+ * is measured: SimulationView.onDraw needs a device and isn't covered.
+ */
+public class ParticleSystemAllocationTest {
+
+	private static final int WARMUP_STEPS = 2000;
+	private static final int MEASURED_STEPS = 5000;
+	private static final long STEP_NANOS = 16666667L;
+
+	@Test
+	public void updateDoesNotAllocateAfterWarmup() throws Exception {
+		final ObstacleSet obstacles = ObstacleSet.load(new FileInputStream("res/raw/table.txt"));
+		final ParticleSystem system = new ParticleSystem(null, obstacles,
+				new PhysicsEngineConvertor(160.0f, 160.0f), TableParameters.DEFAULT,
+				ParticleSystem.NUM_PARTICLES, ParticleSystem.NUM_MAX_ITERATIONS, 1);
+		system.updateBounds(0.025f, 0.04f);
+		final FastRandom placement = new FastRandom(2);
+		final Particle[] particles = system.getParticles();
+		for (int i = 0; i < system.getParticleCount(); i++) {
+			particles[i].reset((placement.nextFloat() - 0.5f) * 0.025f,
+					(placement.nextFloat() - 0.5f) * 0.04f);
+		}
+
+		final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		long now = STEP_NANOS;
+		for (int i = 0; i < WARMUP_STEPS; i++) {
+			step(system, i, now);
+			now += STEP_NANOS;
+		}
+		final long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < MEASURED_STEPS; i++) {
+			step(system, WARMUP_STEPS + i, now);
+			now += STEP_NANOS;
+		}
+		final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertEquals("bytes allocated over " + MEASURED_STEPS + " steps", 0, allocated);
+	}
+
+	/*
+	 * Keep turning the table so the orbs never come to rest.
+	 */
+	private static void step(ParticleSystem system, int step, long now) {
+		final double angle = step * 0.01;
+		system.update((float) (3.0 * Math.sin(angle)), (float) (3.0 * Math.cos(angle)),
+				30.0f, 0.0f, now);
+	}
+}
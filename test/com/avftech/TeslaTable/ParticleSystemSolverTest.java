@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 The Tesla Table Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.avftech.TeslaTable;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that the solver stops early on piles of orbs resting on a
+ * tilted table, without leaving them squeezed or restless. Some piles
+ * rest squeezed enough to need every iteration, so stopping early is
+ * checked over a handful of piles rather than each one.
+ *
+ * Runs headless on a desktop JVM with android.jar on the class path.
+ */
+public class ParticleSystemSolverTest {
+
+	private static final int SEEDS = 8;
+	private static final int SETTLE_STEPS = 600;
+	private static final int MEASURED_STEPS = 300;
+	private static final long STEP_NANOS = 16666667L;
+	private static final float STEP_SECONDS = STEP_NANOS / 1000000000.0f;
+	private static final float HORIZONTAL_BOUND = 0.025f;
+	private static final float VERTICAL_BOUND = 0.04f;
+	// the view stops drawing after this many steps under a tenth of a pixel at 160dpi
+	private static final int QUIET_STEPS = 30;
+	private static final float REST = 0.1f / 160.0f * 0.0254f;
+
+	@Test
+	public void restingPilesStopEarly() {
+		assertStopEarly(3.0f);
+		assertStopEarly(9.81f);
+	}
+
+	private static void assertStopEarly(float tilt) {
+		float iterations = 0;
+		for (int seed = 1; seed <= SEEDS; seed++) {
+			iterations += restingPileIterations(tilt, seed);
+		}
+		final float meanIterations = iterations / SEEDS;
+		assertTrue("tilt " + tilt + " used " + meanIterations + " iterations",
+				meanIterations < ParticleSystem.NUM_MAX_ITERATIONS - 1);
+	}
+
+	/*
+	 * Settle a pile, check it rests and isn't squeezed.
+	 *
+	 * @return the mean number of iterations of a step once it has settled
+	 */
+	private static float restingPileIterations(float tilt, long seed) {
+		final String table = "tilt " + tilt + " seed " + seed;
+		final ObstacleSet empty = new ObstacleSet(new float[0], new float[0], new float[0],
+				new float[0], new float[0], new float[0], new float[0], new float[0]);
+		final ParticleSystem system = new ParticleSystem(null, empty,
+				new PhysicsEngineConvertor(160.0f, 160.0f), TableParameters.DEFAULT,
+				ParticleSystem.NUM_PARTICLES, ParticleSystem.NUM_MAX_ITERATIONS, seed);
+		system.updateBounds(HORIZONTAL_BOUND, VERTICAL_BOUND);
+		final FastRandom placement = new FastRandom(~seed);
+		final Particle[] particles = system.getParticles();
+		final int count = system.getParticleCount();
+		for (int i = 0; i < count; i++) {
+			particles[i].reset((placement.nextFloat() - 0.5f) * 2 * HORIZONTAL_BOUND,
+					(placement.nextFloat() - 0.5f) * 2 * VERTICAL_BOUND);
+		}
+
+		long now = STEP_NANOS;
+		for (int i = 0; i < SETTLE_STEPS; i++) {
+			system.update(0, tilt, 0, 0, now);
+			now += STEP_NANOS;
+		}
+		int iterations = 0;
+		int quiet = 0;
+		int maxQuiet = 0;
+		float maxPenetration = 0;
+		for (int i = 0; i < MEASURED_STEPS; i++) {
+			system.update(0, tilt, 0, 0, now);
+			now += STEP_NANOS;
+			iterations += system.getLastIterationCount();
+			quiet = system.getMaxStepDisplacement2() < REST * REST ? quiet + 1 : 0;
+			maxQuiet = Math.max(maxQuiet, quiet);
+			for (int a = 0; a < count; a++) {
+				for (int b = a + 1; b < count; b++) {
+					final float dx = particles[a].mPosX - particles[b].mPosX;
+					final float dy = particles[a].mPosY - particles[b].mPosY;
+					maxPenetration = Math.max(maxPenetration,
+							Particle.sBallDiameter - (float) Math.sqrt(dx * dx + dy * dy));
+				}
+			}
+		}
+
+		assertTrue(table + " never came to rest", maxQuiet >= QUIET_STEPS);
+		// no deeper than half of how far the tilt pushes an orb in one step
+		final float push = tilt * STEP_SECONDS * STEP_SECONDS;
+		assertTrue(table + " orbs overlap by " + maxPenetration + "m",
+				maxPenetration < push * 0.5f);
+		return (float) iterations / MEASURED_STEPS;
+	}
+}